@@ -0,0 +1,153 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+
+/* Checks that IncrementalFrontEnd gives what the whole front end does.
+Each script is edited at random, a few hundred times: snippets of code,
+comments and newlines are put in and runs of text taken out. After each
+edit the incremental program must be the same as parsing and resolving the
+whole source afresh, down to token positions and resolved depths, and it
+must report errors whenever the full front end does. */
+public class IncrementalCheck
+{
+    private static final String[] SNIPPETS = {
+        "\n", " ", "x", ";", "}", "{", "(", "print 1;", "let q := 2;\n", "/*", "*/",
+        "define h() { return 1; }\n", "1", "+", "//"
+    };
+    private static final int EDITS = 300;
+
+    public static void main(String args[]) throws Exception
+    {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+        Random random = new Random(seed);
+        PrintStream sink = new PrintStream(OutputStream.nullOutputStream());
+        int checks = 0, errors = 0;
+        for(int a=1;a<args.length;a++)
+        {
+            String original = Files.readString(Paths.get(args[a]));
+            String text = original;
+            LoxContext context = new LoxContext(sink, sink, false);
+            IncrementalFrontEnd frontEnd = new IncrementalFrontEnd(context);
+            for(int edit=0;edit<EDITS;edit++)
+            {
+                ByteArrayOutputStream err = new ByteArrayOutputStream();
+                LoxContext full = new LoxContext(sink, new PrintStream(err, true), false);
+                List<Stmt> program;
+                try
+                {
+                    program = new Parser(new Tokenizer(text, full).getTokens(), full).parse();
+                    if(!full.hadError)
+                    {
+                        new Resolver(full).resolve(program);
+                    }
+                }
+                catch(IndexOutOfBoundsException e)
+                {
+                    // A string left open at the very end trips the Tokenizer itself.
+                    text = original;
+                    continue;
+                }
+
+                context.hadError = false;
+                List<Stmt> incremental = frontEnd.update(text);
+                boolean incrementalError = context.hadError;
+                if(!full.hadError)
+                {
+                    String expected = dump(program), actual = dump(incremental);
+                    if(!expected.equals(actual) || incrementalError)
+                    {
+                        System.out.println("MISMATCH " + args[a] + ", edit " + edit + ":\n" + text
+                            + "\n--- incremental\n" + actual + "\n--- full\n" + expected);
+                        System.exit(1);
+                    }
+                }
+                else
+                {
+                    errors++;
+                    if(!incrementalError)
+                    {
+                        System.out.println("MISSING ERROR " + args[a] + ", edit " + edit + ":\n" + text + "\n" + err);
+                        System.exit(1);
+                    }
+                }
+                checks++;
+                text = edit(random, text);
+                // Now and then start over from a source without errors.
+                if(full.hadError && random.nextBoolean())
+                {
+                    text = original;
+                }
+            }
+        }
+        System.out.println("ok " + checks + " checks, " + errors + " with errors");
+    }
+
+    private static String edit(Random random, String text)
+    {
+        int at = random.nextInt(text.length() + 1);
+        if(random.nextInt(3) == 0 && text.length() > 0)
+        {
+            at = Math.min(at, text.length() - 1);
+            int end = Math.min(text.length(), at + 1 + random.nextInt(8));
+            return text.substring(0, at) + text.substring(end);
+        }
+        return text.substring(0, at) + SNIPPETS[random.nextInt(SNIPPETS.length)] + text.substring(at);
+    }
+
+    private static String dump(List<Stmt> program) throws IllegalAccessException
+    {
+        StringBuilder text = new StringBuilder();
+        for(Stmt stmt : program)
+        {
+            dump(stmt, text);
+            text.append('\n');
+        }
+        return text.toString();
+    }
+
+    // Every field of every node, by reflection, so that nothing is left out.
+    private static void dump(Object value, StringBuilder text) throws IllegalAccessException
+    {
+        if(value instanceof Token)
+        {
+            Token token = (Token) value;
+            text.append(token.type).append(':').append(token.lexeme)
+                .append('@').append(token.line).append(',').append(token.col).append(' ');
+        }
+        else if(value instanceof List)
+        {
+            text.append('[');
+            for(Object element : (List<?>) value)
+            {
+                dump(element, text);
+            }
+            text.append(']');
+        }
+        else if(value instanceof Expr || value instanceof Stmt)
+        {
+            text.append('(').append(value.getClass().getSimpleName()).append(' ');
+            for(Field field : value.getClass().getDeclaredFields())
+            {
+                if(!Modifier.isStatic(field.getModifiers()) && !Modifier.isTransient(field.getModifiers()))
+                {
+                    field.setAccessible(true);
+                    dump(field.get(value), text);
+                }
+            }
+            text.append(')');
+        }
+        else
+        {
+            text.append(value).append(' ');
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/* Checks that --lazy never rejects a program the eager parser accepts. The
+pre-parser only looks at a body's tokens to find where it ends, and any
+error it reports there must be one the full grammar reports too. Programs
+are random functions over every statement form, such as 'if' without
+braces followed by 'else', switches with empty cases and nested classes,
+each also with a few characters cut out, and the scripts given on the
+command line. */
+public class LazyCheck
+{
+    private static final String[] OPERANDS = {
+        "x", "1", "2.5", "\"s\"", "nil", "true", "-x", "not x", "~x", "(x + 1)", "x.y", "f(x, 1)", "x * 2 - 1"
+    };
+
+    public static void main(String args[]) throws Exception
+    {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+        Random random = new Random(seed);
+        int checks = 0;
+        for(int n=0;n<20_000;n++)
+        {
+            StringBuilder program = new StringBuilder();
+            for(int i=random.nextInt(3);i>=0;i--)
+            {
+                program.append("define f").append(i).append("(x) {");
+                statements(random, program, 3, false);
+                program.append("}\n");
+            }
+            String source = program.toString();
+            int at = random.nextInt(source.length());
+            String cut = source.substring(0, at) + source.substring(Math.min(source.length(), at + 1 + random.nextInt(3)));
+            if(!check(source, true) || !check(cut, false))
+            {
+                System.exit(1);
+            }
+            checks += 2;
+        }
+        for(int a=1;a<args.length;a++)
+        {
+            if(!check(Files.readString(Paths.get(args[a])), false))
+            {
+                System.exit(1);
+            }
+            checks++;
+        }
+        System.out.println("ok " + checks + " programs");
+    }
+
+    /* Parses the source eagerly and lazily. False if only the lazy parse
+    failed, or if a program meant to be valid did not parse at all. */
+    private static boolean check(String source, boolean valid)
+    {
+        ByteArrayOutputStream eagerErr = new ByteArrayOutputStream(), lazyErr = new ByteArrayOutputStream();
+        if(!parses(source, false, eagerErr))
+        {
+            if(valid)
+            {
+                System.out.println("INVALID PROGRAM\n" + source + "\n" + eagerErr);
+                return false;
+            }
+            return true;
+        }
+        if(!parses(source, true, lazyErr))
+        {
+            System.out.println("LAZY ONLY ERROR\n" + source + "\n" + lazyErr);
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean parses(String source, boolean lazy, ByteArrayOutputStream err)
+    {
+        PrintStream sink = new PrintStream(OutputStream.nullOutputStream());
+        LoxContext context = new LoxContext(sink, new PrintStream(err, true), lazy);
+        try
+        {
+            new Parser(new Tokenizer(source, context).getTokens(), 0, lazy, context).parse();
+        }
+        catch(IndexOutOfBoundsException e)
+        {
+            // A string left open at the very end trips the Tokenizer itself.
+            return false;
+        }
+        return !context.hadError;
+    }
+
+    private static void statements(Random random, StringBuilder out, int depth, boolean loop)
+    {
+        for(int i=random.nextInt(4);i>0;i--)
+        {
+            statement(random, out, depth, loop, true);
+        }
+    }
+
+    // Declarations only go in statement lists, not straight into an if or a loop.
+    private static void statement(Random random, StringBuilder out, int depth, boolean loop, boolean declaration)
+    {
+        int kind = depth == 0 ? random.nextInt(5) : random.nextInt(15);
+        if(!declaration && (kind == 1 || kind >= 12))
+        {
+            kind = 0;
+        }
+        switch(kind)
+        {
+            case 0:
+                out.append(" print ").append(expression(random)).append(';');
+                break;
+            case 1:
+                out.append(" let v := ").append(expression(random)).append(';');
+                break;
+            case 2:
+                out.append(" x := ").append(expression(random)).append(';');
+                break;
+            case 3:
+                out.append(' ').append(expression(random)).append(';');
+                break;
+            case 4:
+                out.append(random.nextBoolean() ? " return;" : " return " + expression(random) + ";");
+                break;
+            case 5:
+                out.append(" {");
+                statements(random, out, depth - 1, loop);
+                out.append(" }");
+                break;
+            case 6:
+                out.append(" if(").append(expression(random)).append(')');
+                statement(random, out, depth - 1, loop, false);
+                if(random.nextBoolean())
+                {
+                    out.append(" else");
+                    statement(random, out, depth - 1, loop, false);
+                }
+                break;
+            case 7:
+                out.append(" while(").append(expression(random)).append(')');
+                statement(random, out, depth - 1, true, false);
+                break;
+            case 8:
+                out.append(" do");
+                statement(random, out, depth - 1, true, false);
+                out.append(" while(").append(expression(random)).append(");");
+                break;
+            case 9:
+                out.append(" for(x := 0; x < 3; x := x + 1)");
+                statement(random, out, depth - 1, true, false);
+                break;
+            case 10:
+                out.append(" switch(x) { case 1:");
+                if(random.nextBoolean())
+                {
+                    statement(random, out, depth - 1, loop, false);
+                }
+                out.append(" case \"a\":");
+                statement(random, out, depth - 1, loop, false);
+                out.append(" default:");
+                if(random.nextBoolean())
+                {
+                    statement(random, out, depth - 1, loop, false);
+                }
+                out.append(" }");
+                break;
+            case 11:
+                out.append(loop ? (random.nextBoolean() ? " break;" : " continue;") : " print x;");
+                break;
+            case 12:
+                out.append(" define g(a) {");
+                statements(random, out, depth - 1, false);
+                out.append(" }");
+                break;
+            case 13:
+                out.append(" class C { m() {");
+                statements(random, out, depth - 1, false);
+                out.append(" } }");
+                break;
+            default:
+                out.append(" struct P(a, b) {}");
+                break;
+        }
+    }
+
+    private static String expression(Random random)
+    {
+        String operand = OPERANDS[random.nextInt(OPERANDS.length)];
+        return random.nextInt(4) == 0 ? operand + " ? 1 : 2" : operand;
+    }
+}
@@ -0,0 +1,78 @@
+package lox;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/* Lexing throughput in MB/s, over a large source made by repeating the
+scripts of a directory. Measures the plain Tokenizer and scanParallel, each
+after a few rounds to warm up the JIT. In the lox package, as the Tokenizer
+is not public. */
+public class Lexing
+{
+    public static void main(String args[]) throws Exception
+    {
+        Path dir = Paths.get(args[0]);
+        int megabytes = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        StringBuilder scripts = new StringBuilder();
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.lox"))
+        {
+            for(Path file : files)
+            {
+                scripts.append(Files.readString(file)).append('\n');
+            }
+        }
+        Path input = Files.createTempFile("lexing", ".lox");
+        try
+        {
+            StringBuilder text = new StringBuilder();
+            while(text.length() < megabytes * 1_000_000L)
+            {
+                text.append(scripts);
+            }
+            Files.writeString(input, text);
+            CharSequence source = SourceFile.open(input);
+            System.out.printf("%.1f MB of source, %d cores%n", source.length() / 1e6,
+                Runtime.getRuntime().availableProcessors());
+            measure("scanTokens", source, rounds, false);
+            measure("scanParallel", source, rounds, true);
+        }
+        finally
+        {
+            Files.deleteIfExists(input);
+        }
+    }
+
+    private static void measure(String name, CharSequence source, int rounds, boolean parallel)
+    {
+        PrintStream sink = new PrintStream(OutputStream.nullOutputStream());
+        double best = 0;
+        for(int round=0;round<rounds;round++)
+        {
+            LoxContext context = new LoxContext(sink, sink, false);
+            long start = System.nanoTime();
+            int tokens;
+            if(parallel)
+            {
+                tokens = Tokenizer.scanParallel(source, context).size();
+            }
+            else
+            {
+                Tokenizer tokenizer = new Tokenizer(source, context);
+                tokenizer.scanTokens();
+                tokens = tokenizer.getTokens().size();
+            }
+            double rate = source.length() / 1e6 / ((System.nanoTime() - start) / 1e9);
+            best = Math.max(best, rate);
+            if(round == rounds - 1)
+            {
+                System.out.printf("%-12s %10d tokens, best %7.1f MB/s%n", name, tokens, best);
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package lox;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+/* Checks the Tokenizer's number literals against Double.parseDouble, on
+random literals of up to 18 integer and 18 fraction digits, so that both
+the fast path and the fallback are hit. */
+public class NumberCheck
+{
+    public static void main(String args[])
+    {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+        int literals = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        Random random = new Random(seed);
+        PrintStream sink = new PrintStream(OutputStream.nullOutputStream());
+        for(int n=0;n<literals;n++)
+        {
+            String literal = digits(random, 1 + random.nextInt(18));
+            if(random.nextBoolean())
+            {
+                literal += "." + digits(random, 1 + random.nextInt(18));
+            }
+            LoxContext context = new LoxContext(sink, sink, false);
+            Tokenizer tokenizer = new Tokenizer(literal, context);
+            tokenizer.scanTokens();
+            Object value = tokenizer.getTokens().get(0).literal;
+            Double expected = Double.parseDouble(literal);
+            if(!expected.equals(value))
+            {
+                System.out.println("MISMATCH " + literal + ": " + value + ", expected " + expected);
+                System.exit(1);
+            }
+        }
+        System.out.println("ok " + literals + " literals");
+    }
+
+    // Random digits, leading zeros included.
+    private static String digits(Random random, int count)
+    {
+        StringBuilder digits = new StringBuilder();
+        for(int i=0;i<count;i++)
+        {
+            digits.append((char) ('0' + random.nextInt(10)));
+        }
+        return digits.toString();
+    }
+}
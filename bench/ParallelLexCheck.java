@@ -0,0 +1,86 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+/* Checks that Tokenizer.scanParallel gives exactly what scanTokens does:
+the same tokens with the same offsets, lines, cols and values, and the same
+error output. Sources are random runs of fragments that open and close
+comments and strings and break lines, lexed in chunks of 1 char up, so that
+every cut lands inside something sooner or later. */
+public class ParallelLexCheck
+{
+    private static final String[] FRAGMENTS = {
+        "/*", "*/", "\"", "\n", "\n", " ", "x", "y1", "12", "3.25", "//", "+", "{", "}", ";", "print", "(", ")", "!="
+    };
+    private static final int[] CHUNKS = {1, 2, 3, 5, 8, 13, 64};
+
+    public static void main(String args[])
+    {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+        int sources = args.length > 1 ? Integer.parseInt(args[1]) : 3000;
+        Random random = new Random(seed);
+        int checks = 0, skipped = 0;
+        for(int n=0;n<sources;n++)
+        {
+            StringBuilder source = new StringBuilder();
+            int length = 1 + random.nextInt(120);
+            for(int i=0;i<length;i++)
+            {
+                source.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            }
+            String expected;
+            try
+            {
+                expected = sequential(source);
+            }
+            catch(IndexOutOfBoundsException e)
+            {
+                // An unterminated string at the very end trips the Tokenizer itself.
+                skipped++;
+                continue;
+            }
+            for(int chunk : CHUNKS)
+            {
+                String actual = parallel(source, chunk);
+                if(!expected.equals(actual))
+                {
+                    System.out.println("MISMATCH, chunks of " + chunk + ", source:\n" + source
+                        + "\n--- scanTokens\n" + expected + "\n--- scanParallel\n" + actual);
+                    System.exit(1);
+                }
+                checks++;
+            }
+        }
+        System.out.println("ok " + checks + " checks, " + skipped + " sources skipped");
+    }
+
+    private static String sequential(CharSequence source)
+    {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        LoxContext context = new LoxContext(System.out, new PrintStream(err, true), false);
+        Tokenizer tokenizer = new Tokenizer(source, context);
+        tokenizer.scanTokens();
+        return dump(tokenizer.getTokens()) + err;
+    }
+
+    private static String parallel(CharSequence source, int chunk)
+    {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        LoxContext context = new LoxContext(System.out, new PrintStream(err, true), false);
+        return dump(Tokenizer.scanParallel(source, chunk, context)) + err;
+    }
+
+    static String dump(TokenBuffer tokens)
+    {
+        StringBuilder text = new StringBuilder();
+        for(int i=0;i<tokens.size();i++)
+        {
+            text.append(tokens.type(i)).append(' ').append(tokens.start(i)).append('-').append(tokens.end(i))
+                .append(' ').append(tokens.line(i)).append(':').append(tokens.col(i))
+                .append(' ').append(tokens.get(i).literal).append('\n');
+        }
+        return text.toString();
+    }
+}
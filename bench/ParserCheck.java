@@ -0,0 +1,215 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Random;
+
+/* Checks the precedence and associativity of the Parser against a table of
+its own, the order of the old one-method-per-level chain. Random expression
+trees are written out twice, with parentheses only where the table needs
+them and with parentheses around everything, and both must parse back into
+the tree they came from. */
+public class ParserCheck
+{
+    private static final String[] OPERATORS = {
+        ",", "or", "and", "|", "^", "&", "=", "!=", ">", ">=", "<", "<=", "+", "-", "*", "/", "%", "**"
+    };
+    private static final int[] POWERS = {1, 4, 5, 6, 7, 8, 9, 9, 10, 10, 10, 10, 11, 11, 12, 12, 13, 14};
+    // Prefix operators bind looser than calls and property access.
+    private static final int CONDITIONAL = 3, PREFIX = 99, OPERAND = 100;
+    private static final String[] PREFIXES = {"-", "not", "~"};
+
+    // A random tree, as the source for it and the parse it should give.
+    private static final class Node
+    {
+        final String minimal, full, tree;
+        final int power;
+        final boolean right;
+
+        Node(String minimal, String full, String tree, int power, boolean right)
+        {
+            this.minimal = minimal;
+            this.full = full;
+            this.tree = tree;
+            this.power = power;
+            this.right = right;
+        }
+    }
+
+    public static void main(String args[])
+    {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+        int expressions = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        Random random = new Random(seed);
+        for(int n=0;n<expressions;n++)
+        {
+            Node node = node(random, 1 + random.nextInt(6));
+            for(String source : new String[]{node.minimal, node.full})
+            {
+                String parsed = parse(source);
+                if(!node.tree.equals(parsed))
+                {
+                    System.out.println("MISMATCH " + source + "\nexpected " + node.tree + "\nparsed   " + parsed);
+                    System.exit(1);
+                }
+            }
+        }
+        System.out.println("ok " + expressions + " expressions");
+    }
+
+    private static Node node(Random random, int depth)
+    {
+        int kind = depth == 0 ? 0 : random.nextInt(10);
+        if(kind == 0)
+        {
+            if(random.nextBoolean())
+            {
+                int value = random.nextInt(100);
+                return new Node("" + value, "" + value, (double) value + "", OPERAND, false);
+            }
+            String name = "" + (char) ('a' + random.nextInt(5));
+            return new Node(name, name, name, OPERAND, false);
+        }
+        if(kind == 1)
+        {
+            String op = PREFIXES[random.nextInt(PREFIXES.length)];
+            Node operand = node(random, depth - 1);
+            return new Node(op + " " + wrap(operand, operand.power < PREFIX), op + " " + operand.full,
+                "(" + op + " " + operand.tree + ")", PREFIX, false);
+        }
+        if(kind == 2)
+        {
+            Node object = node(random, depth - 1);
+            String name = "" + (char) ('p' + random.nextInt(3));
+            return new Node(wrap(object, object.power < OPERAND) + "." + name, "(" + object.full + ")." + name,
+                "(. " + object.tree + " " + name + ")", OPERAND, false);
+        }
+        if(kind == 3)
+        {
+            String callee = "" + (char) ('f' + random.nextInt(3));
+            StringBuilder minimal = new StringBuilder(callee + "("), full = new StringBuilder(callee + "(");
+            StringBuilder tree = new StringBuilder("(call " + callee);
+            int count = random.nextInt(4);
+            for(int i=0;i<count;i++)
+            {
+                Node arg = node(random, depth - 1);
+                String separator = i == 0 ? "" : ", ";
+                // Arguments are parsed above the comma.
+                minimal.append(separator).append(wrap(arg, arg.power <= 1));
+                full.append(separator).append(arg.full);
+                tree.append(' ').append(arg.tree);
+            }
+            return new Node(minimal + ")", full + ")", tree + ")", OPERAND, false);
+        }
+        if(kind == 4)
+        {
+            Node cond = node(random, depth - 1), then = node(random, depth - 1), otherwise = node(random, depth - 1);
+            return new Node(wrap(cond, cond.power <= CONDITIONAL) + " ? " + then.minimal + " : "
+                + wrap(otherwise, otherwise.power < CONDITIONAL),
+                "(" + cond.full + " ? " + then.full + " : " + otherwise.full + ")",
+                "(? " + cond.tree + " " + then.tree + " " + otherwise.tree + ")", CONDITIONAL, true);
+        }
+        int op = random.nextInt(OPERATORS.length);
+        int power = POWERS[op];
+        // | is right-associative, like the old chain parsed it.
+        boolean right = OPERATORS[op].equals("|");
+        Node left = node(random, depth - 1), rightNode = node(random, depth - 1);
+        boolean wrapLeft = left.power < power || left.power == power && right;
+        boolean wrapRight = rightNode.power < power || rightNode.power == power && !right;
+        return new Node(wrap(left, wrapLeft) + " " + OPERATORS[op] + " " + wrap(rightNode, wrapRight),
+            "(" + left.full + " " + OPERATORS[op] + " " + rightNode.full + ")",
+            "(" + OPERATORS[op] + " " + left.tree + " " + rightNode.tree + ")", power, right);
+    }
+
+    private static String wrap(Node node, boolean parenthesize)
+    {
+        return parenthesize ? "(" + node.minimal + ")" : node.minimal;
+    }
+
+    private static String parse(String expression)
+    {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        LoxContext context = new LoxContext(System.out, new PrintStream(err, true), false);
+        List<Stmt> program = new Parser(new Tokenizer("print " + expression + ";", context).getTokens(), context).parse();
+        if(context.hadError)
+        {
+            return "errors: " + err;
+        }
+        StringBuilder tree = new StringBuilder();
+        dump(((Stmt.Print) program.get(0)).expr, tree);
+        return tree.toString();
+    }
+
+    // The tree in the form node() writes it, groupings left out.
+    private static void dump(Expr expr, StringBuilder tree)
+    {
+        if(expr instanceof Expr.Grouping)
+        {
+            dump(((Expr.Grouping) expr).expression, tree);
+        }
+        else if(expr instanceof Expr.Literal)
+        {
+            tree.append(((Expr.Literal) expr).val);
+        }
+        else if(expr instanceof Expr.Variable)
+        {
+            tree.append(((Expr.Variable) expr).name.lexeme);
+        }
+        else if(expr instanceof Expr.Unary)
+        {
+            Expr.Unary unary = (Expr.Unary) expr;
+            tree.append('(').append(unary.op.lexeme).append(' ');
+            dump(unary.right, tree);
+            tree.append(')');
+        }
+        else if(expr instanceof Expr.Get)
+        {
+            Expr.Get get = (Expr.Get) expr;
+            tree.append("(. ");
+            dump(get.object, tree);
+            tree.append(' ').append(get.name.lexeme).append(')');
+        }
+        else if(expr instanceof Expr.Call)
+        {
+            Expr.Call call = (Expr.Call) expr;
+            tree.append("(call ").append(((Expr.Variable) call.callee).name.lexeme);
+            for(Expr arg : call.args)
+            {
+                tree.append(' ');
+                dump(arg, tree);
+            }
+            tree.append(')');
+        }
+        else if(expr instanceof Expr.Conditional)
+        {
+            Expr.Conditional conditional = (Expr.Conditional) expr;
+            tree.append("(? ");
+            dump(conditional.cond, tree);
+            tree.append(' ');
+            dump(conditional.thenBranch, tree);
+            tree.append(' ');
+            dump(conditional.elseBranch, tree);
+            tree.append(')');
+        }
+        else if(expr instanceof Expr.Logical)
+        {
+            Expr.Logical logical = (Expr.Logical) expr;
+            binary(logical.op, logical.left, logical.right, tree);
+        }
+        else
+        {
+            Expr.Binary binary = (Expr.Binary) expr;
+            binary(binary.op, binary.left, binary.right, tree);
+        }
+    }
+
+    private static void binary(Token op, Expr left, Expr right, StringBuilder tree)
+    {
+        tree.append('(').append(op.lexeme).append(' ');
+        dump(left, tree);
+        tree.append(' ');
+        dump(right, tree);
+        tree.append(')');
+    }
+}
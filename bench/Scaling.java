@@ -0,0 +1,82 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import lox.LoxContext;
+import lox.LoxEngine;
+
+/* Runs a script over and over in fresh contexts of one engine, on 1, 2, 4,
+... threads up to the number of cores, and prints how many runs a second
+each thread count manages. With no state shared between contexts the rate
+should grow with the threads until the cores run out. */
+public class Scaling
+{
+    public static void main(String args[]) throws Exception
+    {
+        String source = new String(Files.readAllBytes(Paths.get(args[0])));
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 3;
+        int cores = Runtime.getRuntime().availableProcessors();
+        LoxEngine engine = new LoxEngine();
+        PrintStream sink = new PrintStream(OutputStream.nullOutputStream());
+
+        // Warm up the JIT before measuring.
+        measure(engine, source, sink, cores, seconds);
+        double single = 0;
+        for(int threads=1;;threads=Math.min(threads*2, cores))
+        {
+            double rate = measure(engine, source, sink, threads, seconds);
+            if(threads == 1)
+            {
+                single = rate;
+            }
+            System.out.printf("%3d threads: %10.1f runs/s, %5.2fx%n", threads, rate, rate / single);
+            if(threads == cores)
+            {
+                break;
+            }
+        }
+    }
+
+    private static double measure(LoxEngine engine, String source, PrintStream sink, int threads, long seconds)
+        throws Exception
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        AtomicBoolean stop = new AtomicBoolean();
+        List<Future<Long>> counts = new ArrayList<>();
+        for(int i=0;i<threads;i++)
+        {
+            counts.add(pool.submit(() -> {
+                long runs = 0;
+                while(!stop.get())
+                {
+                    LoxContext context = engine.newContext(sink, sink);
+                    if(!context.run(source))
+                    {
+                        throw new IllegalStateException("Script failed.");
+                    }
+                    runs++;
+                }
+                return runs;
+            }));
+        }
+        long start = System.nanoTime();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        stop.set(true);
+        long runs = 0;
+        for(Future<Long> count : counts)
+        {
+            runs += count.get();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+        return runs / elapsed;
+    }
+}
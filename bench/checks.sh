@@ -0,0 +1,19 @@
+#!/bin/bash
+# Differential checks of the front end: each *Check program under bench/
+# compares a fast path with a plain reference on random input.
+#
+#   bench/checks.sh [seed]
+
+root=$(cd "$(dirname "$0")/.." && pwd)
+seed=${1:-1}
+jar="$root/build/lox.jar"
+classes="$root/build/bench"
+
+"$root/lox.sh" --build || exit 1
+mkdir -p "$classes" || exit 1
+javac -cp "$jar" -d "$classes" "$root"/bench/*Check.java || exit 1
+java -cp "$jar:$classes" lox.NumberCheck "$seed" || exit 1
+java -cp "$jar:$classes" lox.ParallelLexCheck "$seed" || exit 1
+java -cp "$jar:$classes" lox.ParserCheck "$seed" || exit 1
+java -cp "$jar:$classes" lox.IncrementalCheck "$seed" "$root"/examples/*.lox || exit 1
+java -cp "$jar:$classes" lox.LazyCheck "$seed" "$root"/examples/*.lox || exit 1
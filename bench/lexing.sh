@@ -0,0 +1,17 @@
+#!/bin/bash
+# Lexing throughput in MB/s of the Tokenizer, sequential and parallel, over
+# a large source made by repeating the scripts of a directory.
+#
+#   bench/lexing.sh [dir] [megabytes] [rounds]
+
+root=$(cd "$(dirname "$0")/.." && pwd)
+dir=${1:-$root/examples}
+megabytes=${2:-64}
+rounds=${3:-5}
+jar="$root/build/lox.jar"
+classes="$root/build/bench"
+
+"$root/lox.sh" --build || exit 1
+mkdir -p "$classes" || exit 1
+javac -cp "$jar" -d "$classes" "$root/bench/Lexing.java" || exit 1
+exec java -cp "$jar:$classes" lox.Lexing "$dir" "$megabytes" "$rounds"
@@ -0,0 +1,16 @@
+#!/bin/bash
+# Runs of a script per second through LoxEngine, on 1, 2, 4, ... threads up
+# to the number of cores, each run in a context of its own.
+#
+#   bench/scaling.sh [script] [seconds per thread count]
+
+root=$(cd "$(dirname "$0")/.." && pwd)
+script=${1:-$root/examples/Fibonacci.lox}
+seconds=${2:-3}
+jar="$root/build/lox.jar"
+classes="$root/build/bench"
+
+"$root/lox.sh" --build || exit 1
+mkdir -p "$classes" || exit 1
+javac -cp "$jar" -d "$classes" "$root/bench/Scaling.java" || exit 1
+exec java -cp "$jar:$classes" Scaling "$script" "$seconds"
@@ -0,0 +1,43 @@
+#!/bin/bash
+# Time from launching the JVM to the first line a script prints, with and
+# without the class data sharing archive of ./lox.sh --train (which it
+# records first if there is none).
+#
+#   bench/startup.sh [script] [runs]
+
+root=$(cd "$(dirname "$0")/.." && pwd)
+script=${1:-$root/examples/HelloWorld.lox}
+runs=${2:-20}
+jar="$root/build/lox.jar"
+archive="$root/build/lox.jsa"
+
+if [ ! -f "$archive" ]; then
+    "$root/lox.sh" --train || exit 1
+fi
+
+# Milliseconds until the first line of output of the command.
+first_print()
+{
+    local start end line
+    start=$(date +%s%N)
+    {
+        read -r line
+        end=$(date +%s%N)
+        cat > /dev/null
+    } < <("$@" 2>&1)
+    echo $(( (end - start) / 1000000 ))
+}
+
+measure()
+{
+    local label=$1 times=()
+    shift
+    for ((i = 0; i < runs; i++)); do
+        times+=("$(first_print "$@")")
+    done
+    sorted=($(printf '%s\n' "${times[@]}" | sort -n))
+    echo "$label: median ${sorted[runs / 2]} ms, min ${sorted[0]} ms, max ${sorted[runs - 1]} ms"
+}
+
+measure "default CDS" java -cp "$jar" lox.Lox "$script"
+measure "app CDS    " java -XX:SharedArchiveFile="$archive" -cp "$jar" lox.Lox "$script"
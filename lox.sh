@@ -0,0 +1,42 @@
+#!/bin/sh
+# Runs jlox. The sources are compiled into build/lox.jar when they changed,
+# and when build/lox.jsa exists the JVM maps the classes from that class data
+# sharing archive instead of loading them one by one.
+#
+#   ./lox.sh --build      only compile build/lox.jar
+#   ./lox.sh --train      record build/lox.jsa by running examples/
+#   ./lox.sh [file]       run a script, or the prompt
+#   ./lox.sh --client socket [file]
+#                         run a script on a server started with --server socket
+
+root=$(cd "$(dirname "$0")" && pwd)
+build="$root/build"
+jar="$build/lox.jar"
+archive="$build/lox.jsa"
+
+if [ ! -f "$jar" ] || [ -n "$(find "$root/lox" -name '*.java' -newer "$jar")" ]; then
+    rm -rf "$build/classes" "$archive"
+    mkdir -p "$build/classes" || exit 1
+    javac -d "$build/classes" "$root"/lox/*.java || exit 1
+    jar cf "$jar" -C "$build/classes" . || exit 1
+fi
+
+if [ "$1" = "--build" ]; then
+    exit 0
+fi
+
+if [ "$1" = "--train" ]; then
+    rm -f "$archive"
+    exec java -XX:ArchiveClassesAtExit="$archive" -cp "$jar" lox.Lox --train "$root/examples"
+fi
+
+if [ "$1" = "--client" ]; then
+    shift
+    # The client only copies bytes around, the first compiler tier is plenty.
+    exec java -XX:TieredStopAtLevel=1 -cp "$jar" lox.Client "$@"
+fi
+
+if [ -f "$archive" ]; then
+    exec java -XX:SharedArchiveFile="$archive" -cp "$jar" lox.Lox "$@"
+fi
+exec java -cp "$jar" lox.Lox "$@"
@@ -0,0 +1,742 @@
+package lox;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/* Flat encoding of a parsed program. Every node is a run of ints in one
+array, starting with its kind and followed by its fields: child nodes are
+offsets of earlier runs (children are written before their parent), tokens
+are indexes into the token columns and literal values indexes into a side
+table. Lists are written inline as a count followed by the elements, and
+a missing child is -1. Variables, assignments, 'self' and 'super' also
+carry the depth the Resolver gave them.
+
+This is a storage format for the script cache, its only user, and not a
+form the program runs in: write() and read() move it to and from a stream,
+and decode() rebuilds the whole Expr/Stmt tree, which the Interpreter then
+runs as usual. It saves memory on disk and time spent parsing, not memory
+or locality at run time. */
+class AstArena
+{
+    private static final TokenType[] TYPES = TokenType.values();
+
+    // Expression kinds.
+    private static final int BINARY = 0, UNARY = 1, LITERAL = 2, GROUPING = 3, VARIABLE = 4,
+        ASSIGN = 5, LOGICAL = 6, CONDITIONAL = 7, CALL = 8, GET = 9, SET = 10, SELF = 11, SUPER = 12;
+    // Statement kinds.
+    private static final int EXPRESSION = 13, PRINT = 14, LET = 15, BLOCK = 16, IF = 17, WHILE = 18,
+        DO_WHILE = 19, FOR = 20, FUNCTION = 21, RETURN = 22, BREAK = 23, CONTINUE = 24, SWITCH = 25,
+        CLASS = 26;
+
+    private int[] nodes = new int[256];
+    private int size;
+    // Root statements of the program.
+    private int[] roots = new int[16];
+    private int rootCount;
+
+    private byte[] tokenTypes = new byte[64];
+    private int[] tokenLines = new int[64];
+    private int[] tokenCols = new int[64];
+    // Index of the lexeme in the string pool, or -1.
+    private int[] tokenLexemes = new int[64];
+    private Object[] tokenLiterals = new Object[64];
+    private int tokenCount;
+
+    private Object[] literals = new Object[16];
+    private int literalCount;
+
+    // Distinct lexemes and string values, each stored once.
+    private String[] strings = new String[16];
+    private int stringCount;
+    private Map<String, Integer> stringIndex = new HashMap<>();
+
+    /* Encodes a resolved program. Pre-parsed bodies are compiled on the way,
+    reporting any errors to the context. */
+    static AstArena encode(List<Stmt> program, LoxContext context)
+    {
+        AstArena arena = new AstArena();
+        Encoder encoder = arena.new Encoder(context);
+        for(Stmt stmt : program)
+        {
+            if(arena.rootCount == arena.roots.length)
+            {
+                arena.roots = Arrays.copyOf(arena.roots, arena.rootCount * 2);
+            }
+            arena.roots[arena.rootCount++] = encoder.stmt(stmt);
+        }
+        return arena;
+    }
+
+    int nodeCount()
+    {
+        return size;
+    }
+
+    List<Stmt> decode()
+    {
+        Decoder decoder = new Decoder();
+        List<Stmt> program = new ArrayList<>(rootCount);
+        for(int i=0;i<rootCount;i++)
+        {
+            program.add(decoder.stmt(roots[i]));
+        }
+        return program;
+    }
+
+    void write(DataOutputStream out) throws IOException
+    {
+        out.writeInt(stringCount);
+        for(int i=0;i<stringCount;i++)
+        {
+            byte[] bytes = strings[i].getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        writeInts(out, nodes, size);
+        writeInts(out, roots, rootCount);
+        out.writeInt(tokenCount);
+        out.write(tokenTypes, 0, tokenCount);
+        for(int i=0;i<tokenCount;i++)
+        {
+            out.writeInt(tokenLines[i]);
+            out.writeInt(tokenCols[i]);
+            out.writeInt(tokenLexemes[i]);
+            writeValue(out, tokenLiterals[i]);
+        }
+        out.writeInt(literalCount);
+        for(int i=0;i<literalCount;i++)
+        {
+            writeValue(out, literals[i]);
+        }
+    }
+
+    /* Reads back what write() wrote. Only the shape of the data is checked
+    here, callers are expected to have checked its integrity. */
+    static AstArena read(ByteBuffer in) throws IOException
+    {
+        AstArena arena = new AstArena();
+        int count = readCount(in);
+        arena.strings = new String[count];
+        for(int i=0;i<count;i++)
+        {
+            int length = readCount(in);
+            arena.strings[i] = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        }
+        arena.stringCount = count;
+        arena.stringIndex = null;
+        arena.nodes = readInts(in);
+        arena.size = arena.nodes.length;
+        arena.roots = readInts(in);
+        arena.rootCount = arena.roots.length;
+        count = readCount(in);
+        arena.tokenTypes = new byte[count];
+        arena.tokenLines = new int[count];
+        arena.tokenCols = new int[count];
+        arena.tokenLexemes = new int[count];
+        arena.tokenLiterals = new Object[count];
+        in.get(arena.tokenTypes);
+        for(int i=0;i<count;i++)
+        {
+            if(arena.tokenTypes[i] < 0 || arena.tokenTypes[i] >= TYPES.length)
+            {
+                throw new IOException("Bad token type.");
+            }
+            arena.tokenLines[i] = in.getInt();
+            arena.tokenCols[i] = in.getInt();
+            arena.tokenLexemes[i] = arena.checkString(in.getInt());
+            arena.tokenLiterals[i] = arena.readValue(in);
+        }
+        arena.tokenCount = count;
+        count = readCount(in);
+        arena.literals = new Object[count];
+        for(int i=0;i<count;i++)
+        {
+            arena.literals[i] = arena.readValue(in);
+        }
+        arena.literalCount = count;
+        return arena;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values, int count) throws IOException
+    {
+        out.writeInt(count);
+        for(int i=0;i<count;i++)
+        {
+            out.writeInt(values[i]);
+        }
+    }
+
+    private static int[] readInts(ByteBuffer in) throws IOException
+    {
+        int[] values = new int[readCount(in)];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + values.length * 4);
+        return values;
+    }
+
+    private static int readCount(ByteBuffer in) throws IOException
+    {
+        int count = in.getInt();
+        if(count < 0 || count > in.remaining())
+        {
+            throw new IOException("Bad count.");
+        }
+        return count;
+    }
+
+    // Checks a string pool index, -1 stands for null.
+    private int checkString(int index) throws IOException
+    {
+        if(index < -1 || index >= stringCount)
+        {
+            throw new IOException("Bad string index.");
+        }
+        return index;
+    }
+
+    // Literal values are nil, booleans, numbers and strings.
+    private void writeValue(DataOutputStream out, Object value) throws IOException
+    {
+        if(value == null)
+        {
+            out.writeByte(0);
+        }
+        else if(value instanceof Boolean)
+        {
+            out.writeByte((Boolean) value ? 1 : 2);
+        }
+        else if(value instanceof Double)
+        {
+            out.writeByte(3);
+            out.writeDouble((Double) value);
+        }
+        else
+        {
+            out.writeByte(4);
+            out.writeInt(string((String) value));
+        }
+    }
+
+    private Object readValue(ByteBuffer in) throws IOException
+    {
+        switch(in.get())
+        {
+            case 0:
+                return null;
+            case 1:
+                return true;
+            case 2:
+                return false;
+            case 3:
+                return in.getDouble();
+            case 4:
+                int index = checkString(in.getInt());
+                return index == -1 ? null : strings[index];
+        }
+        throw new IOException("Bad value tag.");
+    }
+
+    private int emit(int kind, int... fields)
+    {
+        int node = size;
+        ensure(1 + fields.length);
+        nodes[size++] = kind;
+        for(int field : fields)
+        {
+            nodes[size++] = field;
+        }
+        return node;
+    }
+
+    private int emitList(int kind, int[] head, int[] list, int... tail)
+    {
+        int node = size;
+        ensure(2 + head.length + list.length + tail.length);
+        nodes[size++] = kind;
+        for(int field : head)
+        {
+            nodes[size++] = field;
+        }
+        nodes[size++] = list.length;
+        for(int field : list)
+        {
+            nodes[size++] = field;
+        }
+        for(int field : tail)
+        {
+            nodes[size++] = field;
+        }
+        return node;
+    }
+
+    private void ensure(int extra)
+    {
+        if(size + extra > nodes.length)
+        {
+            nodes = Arrays.copyOf(nodes, Math.max(nodes.length * 2, size + extra));
+        }
+    }
+
+    private int token(Token token)
+    {
+        if(tokenCount == tokenTypes.length)
+        {
+            int capacity = tokenCount * 2;
+            tokenTypes = Arrays.copyOf(tokenTypes, capacity);
+            tokenLines = Arrays.copyOf(tokenLines, capacity);
+            tokenCols = Arrays.copyOf(tokenCols, capacity);
+            tokenLexemes = Arrays.copyOf(tokenLexemes, capacity);
+            tokenLiterals = Arrays.copyOf(tokenLiterals, capacity);
+        }
+        tokenTypes[tokenCount] = (byte) token.type.ordinal();
+        tokenLines[tokenCount] = token.line;
+        tokenCols[tokenCount] = token.col;
+        tokenLexemes[tokenCount] = token.lexeme == null ? -1 : string(token.lexeme);
+        tokenLiterals[tokenCount] = token.literal;
+        return tokenCount++;
+    }
+
+    private int string(String value)
+    {
+        Integer index = stringIndex.get(value);
+        if(index == null)
+        {
+            if(stringCount == strings.length)
+            {
+                strings = Arrays.copyOf(strings, stringCount * 2);
+            }
+            index = stringCount;
+            strings[stringCount++] = value;
+            stringIndex.put(value, index);
+        }
+        return index;
+    }
+
+    private int literal(Object value)
+    {
+        if(literalCount == literals.length)
+        {
+            literals = Arrays.copyOf(literals, literalCount * 2);
+        }
+        literals[literalCount] = value;
+        return literalCount++;
+    }
+
+    private class Encoder implements Expr.Visitor<Integer>, Stmt.Visitor<Integer>
+    {
+        private final LoxContext context;
+
+        Encoder(LoxContext context)
+        {
+            this.context = context;
+        }
+
+        int expr(Expr expr)
+        {
+            return expr == null ? -1 : expr.accept(this);
+        }
+
+        int stmt(Stmt stmt)
+        {
+            return stmt == null ? -1 : stmt.accept(this);
+        }
+
+        int[] stmts(List<? extends Stmt> stmts)
+        {
+            int[] list = new int[stmts.size()];
+            for(int i=0;i<list.length;i++)
+            {
+                list[i] = stmt(stmts.get(i));
+            }
+            return list;
+        }
+
+        int[] tokens(List<Token> tokens)
+        {
+            int[] list = new int[tokens.size()];
+            for(int i=0;i<list.length;i++)
+            {
+                list[i] = token(tokens.get(i));
+            }
+            return list;
+        }
+
+        @Override
+        public Integer visitBinary(Expr.Binary expr)
+        {
+            int left = expr(expr.left), right = expr(expr.right);
+            return emit(BINARY, left, token(expr.op), right);
+        }
+
+        @Override
+        public Integer visitUnary(Expr.Unary expr)
+        {
+            int right = expr(expr.right);
+            return emit(UNARY, token(expr.op), right);
+        }
+
+        @Override
+        public Integer visitLiteral(Expr.Literal expr)
+        {
+            return emit(LITERAL, literal(expr.val));
+        }
+
+        @Override
+        public Integer visitGrouping(Expr.Grouping expr)
+        {
+            return emit(GROUPING, expr(expr.expression));
+        }
+
+        @Override
+        public Integer visitVarExpr(Expr.Variable expr)
+        {
+            return emit(VARIABLE, token(expr.name), expr.depth);
+        }
+
+        @Override
+        public Integer visitAssignExpr(Expr.Assign expr)
+        {
+            int value = expr(expr.value);
+            return emit(ASSIGN, token(expr.name), value, expr.depth);
+        }
+
+        @Override
+        public Integer visitLogicalExpr(Expr.Logical expr)
+        {
+            int left = expr(expr.left), right = expr(expr.right);
+            return emit(LOGICAL, left, token(expr.op), right);
+        }
+
+        @Override
+        public Integer visitConditionalExpr(Expr.Conditional expr)
+        {
+            int cond = expr(expr.cond), thenBranch = expr(expr.thenBranch), elseBranch = expr(expr.elseBranch);
+            return emit(CONDITIONAL, cond, thenBranch, elseBranch);
+        }
+
+        @Override
+        public Integer visitCallExpr(Expr.Call expr)
+        {
+            int callee = expr(expr.callee);
+            int[] args = new int[expr.args.size()];
+            for(int i=0;i<args.length;i++)
+            {
+                args[i] = expr(expr.args.get(i));
+            }
+            return emitList(CALL, new int[]{callee, token(expr.paren)}, args);
+        }
+
+        @Override
+        public Integer visitGetExpr(Expr.Get expr)
+        {
+            int object = expr(expr.object);
+            return emit(GET, token(expr.name), object);
+        }
+
+        @Override
+        public Integer visitSetExpr(Expr.Set expr)
+        {
+            int object = expr(expr.object), value = expr(expr.value);
+            return emit(SET, token(expr.name), object, value);
+        }
+
+        @Override
+        public Integer visitSelfExpr(Expr.Self expr)
+        {
+            return emit(SELF, token(expr.keyword), expr.depth);
+        }
+
+        @Override
+        public Integer visitSuperExpr(Expr.Super expr)
+        {
+            return emit(SUPER, token(expr.keyword), token(expr.method), expr.depth);
+        }
+
+        @Override
+        public Integer visitExprStmt(Stmt.Expression stmt)
+        {
+            return emit(EXPRESSION, expr(stmt.expr));
+        }
+
+        @Override
+        public Integer visitPrintStmt(Stmt.Print stmt)
+        {
+            return emit(PRINT, expr(stmt.expr));
+        }
+
+        @Override
+        public Integer visitLetStmt(Stmt.Let stmt)
+        {
+            int initializer = expr(stmt.initializer);
+            return emit(LET, token(stmt.name), initializer);
+        }
+
+        @Override
+        public Integer visitBlockStmt(Stmt.Block stmt)
+        {
+            return emitList(BLOCK, new int[0], stmts(stmt.statements));
+        }
+
+        @Override
+        public Integer visitIfStmt(Stmt.If stmt)
+        {
+            int cond = expr(stmt.cond), thenBranch = stmt(stmt.thenBranch), elseBranch = stmt(stmt.elseBranch);
+            return emit(IF, cond, thenBranch, elseBranch);
+        }
+
+        @Override
+        public Integer visitWhileStmt(Stmt.While stmt)
+        {
+            int cond = expr(stmt.cond), body = stmt(stmt.body);
+            return emit(WHILE, token(stmt.keyword), cond, body);
+        }
+
+        @Override
+        public Integer visitDoWhileStmt(Stmt.DoWhile stmt)
+        {
+            int cond = expr(stmt.cond), body = stmt(stmt.body);
+            return emit(DO_WHILE, token(stmt.keyword), cond, body);
+        }
+
+        @Override
+        public Integer visitForStmt(Stmt.For stmt)
+        {
+            int init = expr(stmt.init), cond = expr(stmt.cond), incr = expr(stmt.incr), body = stmt(stmt.body);
+            return emit(FOR, token(stmt.keyword), init, cond, incr, body);
+        }
+
+        @Override
+        public Integer visitFunctionStmt(Stmt.Function stmt)
+        {
+            int[] body = stmts(stmt.lazy == null ? stmt.body : stmt.lazy.statements(context, stmt.name));
+            int name = token(stmt.name);
+            int[] params = tokens(stmt.params);
+            return emitList(FUNCTION, new int[]{name}, params, emitBody(body));
+        }
+
+        /* The body of a function is a nested list, kept as a block node. */
+        private int emitBody(int[] body)
+        {
+            return emitList(BLOCK, new int[0], body);
+        }
+
+        @Override
+        public Integer visitReturnStmt(Stmt.Return stmt)
+        {
+            int value = expr(stmt.expr);
+            return emit(RETURN, token(stmt.keyword), value);
+        }
+
+        @Override
+        public Integer visitBreakStmt(Stmt.Break stmt)
+        {
+            return emit(BREAK, token(stmt.keyword));
+        }
+
+        @Override
+        public Integer visitContinueStmt(Stmt.Continue stmt)
+        {
+            return emit(CONTINUE, token(stmt.keyword));
+        }
+
+        @Override
+        public Integer visitSwitchStmt(Stmt.Switch stmt)
+        {
+            int cond = expr(stmt.cond);
+            int[] branches = stmts(stmt.branches);
+            int[] cases = new int[stmt.exprs.size()];
+            for(int i=0;i<cases.length;i++)
+            {
+                cases[i] = literal(stmt.exprs.get(i));
+            }
+            int caseList = emitList(LITERAL, new int[0], cases);
+            return emitList(SWITCH, new int[]{cond, caseList}, branches);
+        }
+
+        @Override
+        public Integer visitClassStmt(Stmt.Class stmt)
+        {
+            int superclass = expr(stmt.superclass);
+            int[] methods = stmts(stmt.methods);
+            int name = token(stmt.name);
+            int fields = -1;
+            if(stmt.fields != null)
+            {
+                fields = emitList(LITERAL, new int[0], tokens(stmt.fields));
+            }
+            return emitList(CLASS, new int[]{name, superclass}, methods, fields);
+        }
+    }
+
+    // Rebuilds the trees, with the recorded depths set as the Resolver would.
+    private class Decoder
+    {
+        // Symbols of the strings in the pool, interned as they are needed.
+        private final Symbol[] symbols = new Symbol[stringCount];
+
+        private Token tokenAt(int index)
+        {
+            TokenType type = TYPES[tokenTypes[index]];
+            int lexeme = tokenLexemes[index];
+            Symbol symbol = null;
+            if(type == TokenType.ID || type == TokenType.SELF || type == TokenType.SUPER)
+            {
+                symbol = symbols[lexeme];
+                if(symbol == null)
+                {
+                    symbol = Symbol.intern(strings[lexeme]);
+                    symbols[lexeme] = symbol;
+                }
+            }
+            String text = lexeme == -1 ? null : strings[lexeme];
+            return new Token(type, text, tokenLiterals[index], symbol, tokenLines[index], tokenCols[index]);
+        }
+
+        private List<Token> tokenList(int at)
+        {
+            int count = nodes[at];
+            List<Token> tokens = new ArrayList<>(count);
+            for(int i=1;i<=count;i++)
+            {
+                tokens.add(tokenAt(nodes[at+i]));
+            }
+            return tokens;
+        }
+
+        private <T extends Stmt> List<T> stmtList(int at)
+        {
+            int count = nodes[at];
+            List<T> stmts = new ArrayList<>(count);
+            for(int i=1;i<=count;i++)
+            {
+                @SuppressWarnings("unchecked")
+                T stmt = (T) stmt(nodes[at+i]);
+                stmts.add(stmt);
+            }
+            return stmts;
+        }
+
+        private Expr expr(int node)
+        {
+            if(node == -1)
+            {
+                return null;
+            }
+            int f = node + 1;
+            switch(nodes[node])
+            {
+                case BINARY:
+                    return new Expr.Binary(expr(nodes[f]), tokenAt(nodes[f+1]), expr(nodes[f+2]));
+                case UNARY:
+                    return new Expr.Unary(tokenAt(nodes[f]), expr(nodes[f+1]));
+                case LITERAL:
+                    return new Expr.Literal(literals[nodes[f]]);
+                case GROUPING:
+                    return new Expr.Grouping(expr(nodes[f]));
+                case VARIABLE:
+                {
+                    Expr.Variable variable = new Expr.Variable(tokenAt(nodes[f]));
+                    variable.depth = nodes[f+1];
+                    return variable;
+                }
+                case ASSIGN:
+                {
+                    Expr.Assign assign = new Expr.Assign(tokenAt(nodes[f]), expr(nodes[f+1]));
+                    assign.depth = nodes[f+2];
+                    return assign;
+                }
+                case LOGICAL:
+                    return new Expr.Logical(expr(nodes[f]), tokenAt(nodes[f+1]), expr(nodes[f+2]));
+                case CONDITIONAL:
+                    return new Expr.Conditional(expr(nodes[f]), expr(nodes[f+1]), expr(nodes[f+2]));
+                case CALL:
+                    int count = nodes[f+2];
+                    List<Expr> args = new ArrayList<>(count);
+                    for(int i=1;i<=count;i++)
+                    {
+                        args.add(expr(nodes[f+2+i]));
+                    }
+                    return new Expr.Call(expr(nodes[f]), tokenAt(nodes[f+1]), args);
+                case GET:
+                    return new Expr.Get(tokenAt(nodes[f]), expr(nodes[f+1]));
+                case SET:
+                    return new Expr.Set(tokenAt(nodes[f]), expr(nodes[f+1]), expr(nodes[f+2]));
+                case SELF:
+                {
+                    Expr.Self self = new Expr.Self(tokenAt(nodes[f]));
+                    self.depth = nodes[f+1];
+                    return self;
+                }
+                case SUPER:
+                {
+                    Expr.Super superExpr = new Expr.Super(tokenAt(nodes[f]), tokenAt(nodes[f+1]));
+                    superExpr.depth = nodes[f+2];
+                    return superExpr;
+                }
+            }
+            throw new IllegalStateException("Not an expression node: " + nodes[node]);
+        }
+
+        private Stmt stmt(int node)
+        {
+            if(node == -1)
+            {
+                return null;
+            }
+            int f = node + 1;
+            switch(nodes[node])
+            {
+                case EXPRESSION:
+                    return new Stmt.Expression(expr(nodes[f]));
+                case PRINT:
+                    return new Stmt.Print(expr(nodes[f]));
+                case LET:
+                    return new Stmt.Let(tokenAt(nodes[f]), expr(nodes[f+1]));
+                case BLOCK:
+                    return new Stmt.Block(stmtList(f));
+                case IF:
+                    return new Stmt.If(expr(nodes[f]), stmt(nodes[f+1]), stmt(nodes[f+2]));
+                case WHILE:
+                    return new Stmt.While(tokenAt(nodes[f]), expr(nodes[f+1]), stmt(nodes[f+2]));
+                case DO_WHILE:
+                    return new Stmt.DoWhile(tokenAt(nodes[f]), expr(nodes[f+1]), stmt(nodes[f+2]));
+                case FOR:
+                    return new Stmt.For(tokenAt(nodes[f]), expr(nodes[f+1]), expr(nodes[f+2]), expr(nodes[f+3]), stmt(nodes[f+4]));
+                case FUNCTION:
+                    int params = nodes[f+1];
+                    int body = nodes[f+2+params];
+                    return new Stmt.Function(tokenAt(nodes[f]), tokenList(f+1), stmtList(body+1));
+                case RETURN:
+                    return new Stmt.Return(tokenAt(nodes[f]), expr(nodes[f+1]));
+                case BREAK:
+                    return new Stmt.Break(tokenAt(nodes[f]));
+                case CONTINUE:
+                    return new Stmt.Continue(tokenAt(nodes[f]));
+                case SWITCH:
+                    int cases = nodes[f+1] + 1;
+                    ArrayList<Object> exprs = new ArrayList<>(nodes[cases]);
+                    for(int i=1;i<=nodes[cases];i++)
+                    {
+                        exprs.add(literals[nodes[cases+i]]);
+                    }
+                    return new Stmt.Switch(expr(nodes[f]), exprs, new ArrayList<>(stmtList(f+2)));
+                case CLASS:
+                    int methods = nodes[f+2];
+                    int fields = nodes[f+3+methods];
+                    List<Token> fieldTokens = fields == -1 ? null : tokenList(fields+1);
+                    Expr.Variable superclass = (Expr.Variable) expr(nodes[f+1]);
+                    return new Stmt.Class(tokenAt(nodes[f]), stmtList(f+2), superclass, fieldTokens);
+            }
+            throw new IllegalStateException("Not a statement node: " + nodes[node]);
+        }
+    }
+}
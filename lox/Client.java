@@ -0,0 +1,72 @@
+package lox;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+
+/* Runs a script on a server started with --server: sends the arguments,
+copies back what the script prints and exits with its exit code. See Server
+for the protocol. */
+public class Client
+{
+    public static void main(String args[]) throws IOException
+    {
+        if(args.length < 1)
+        {
+            System.out.println("Usage: lox.Client socket [lox arguments]");
+            System.exit(64);
+        }
+        SocketChannel server;
+        try
+        {
+            server = SocketChannel.open(StandardProtocolFamily.UNIX);
+            server.connect(UnixDomainSocketAddress.of(args[0]));
+        }
+        catch(IOException e)
+        {
+            System.err.println("Cannot connect to " + args[0] + ": " + e.getMessage());
+            System.exit(69);
+            return;
+        }
+
+        DataOutputStream out = new DataOutputStream(Channels.newOutputStream(server));
+        out.writeInt(args.length - 1);
+        for(int i=1;i<args.length;i++)
+        {
+            // The server has its own working directory.
+            out.writeUTF(args[i].startsWith("--") ? args[i] : Paths.get(args[i]).toAbsolutePath().toString());
+        }
+        out.flush();
+
+        DataInputStream in = new DataInputStream(Channels.newInputStream(server));
+        byte[] buffer = new byte[8192];
+        while(true)
+        {
+            byte tag = in.readByte();
+            if(tag == Server.EXIT)
+            {
+                System.out.flush();
+                System.exit(in.readInt());
+            }
+            PrintStream to = tag == Server.OUT ? System.out : System.err;
+            int length = in.readInt();
+            while(length > 0)
+            {
+                int n = in.read(buffer, 0, Math.min(length, buffer.length));
+                if(n == -1)
+                {
+                    throw new IOException("Server closed the connection.");
+                }
+                to.write(buffer, 0, n);
+                length -= n;
+            }
+            to.flush();
+        }
+    }
+}
@@ -1,58 +1,86 @@
 package lox;
 
+import java.io.Serializable;
+import java.util.Collection;
 import java.util.Map;
 import java.util.HashMap;
 
-class Environment
+class Environment implements Serializable
 {
-    private final Map<String, Object> values = new HashMap<>();
+    private static final long serialVersionUID = 1L;
+
+    private final Map<Symbol, Object> values = new HashMap<>();
     final Environment enclosing;
+    /* Globals of a context over the frozen globals of a prelude. The
+    prelude's globals count as its own, but assigning one puts the new value
+    here, so the prelude itself is never written. */
+    private final boolean overlay;
+    // Part of a prelude, shared by every context and never written again.
+    private boolean frozen = false;
 
 
     Environment() 
     {                     
-        enclosing = null;                 
+        this(null, false);
     }
 
     Environment(Environment enclosing)
+    {
+        this(enclosing, false);
+    }
+
+    private Environment(Environment enclosing, boolean overlay)
     {
         this.enclosing = enclosing;
+        this.overlay = overlay;
+    }
+
+    static Environment over(Environment prelude)
+    {
+        return new Environment(prelude, true);
     }
 
-    void define(Token varToken, String name, Object value)
+    void define(Token name, Object value)
     {
-        if(values.containsKey(name))
+        if(has(name.symbol))
         {
-            throw new RuntimeError(varToken, "Variable '" + name + "' already exists");
+            throw new RuntimeError(name, "Variable '" + name.lexeme + "' already exists");
         }
-        values.put(name, value);
+        if(frozen)
+        {
+            throw new RuntimeError(name, "Cannot define '" + name.lexeme + "' in the prelude.");
+        }
+        values.put(name.symbol, value);
     }
 
-    void define(String name, Object value)
+    void define(Symbol name, Object value)
     {
         values.put(name, value);
     }
 
-    void assign(Token name, Object value)
+    // Returns the value this environment held before, null for a copy of the prelude's.
+    Object assign(Token name, Object value)
     {
-        if(values.containsKey(name.lexeme))
+        if(has(name.symbol))
         {
-            values.put(name.lexeme, value);
-            return;
+            if(frozen)
+            {
+                throw new RuntimeError(name, "Cannot assign to '" + name.lexeme + "' of the prelude.");
+            }
+            return values.put(name.symbol, value);
         }
         if (enclosing != null) 
         {         
-            enclosing.assign(name, value); 
-            return;                        
+            return enclosing.assign(name, value); 
         }
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'");
     }
 
     Object get(Token name)
     {
-        if(values.containsKey(name.lexeme))
+        if(values.containsKey(name.symbol))
         {
-            return values.get(name.lexeme);
+            return values.get(name.symbol);
         }
         if(enclosing != null) 
         {
@@ -66,11 +94,27 @@ class Environment
         return ancestor(distance).get(name);
     }
 
-    Object getAt(int distance, String name)
+    Object getAt(int distance, Symbol name)
     {
        return ancestor(distance).values.get(name); 
     }
 
+    // Whether name is a variable of this environment, see overlay.
+    private boolean has(Symbol name)
+    {
+        return values.containsKey(name) || overlay && enclosing.has(name);
+    }
+
+    void freeze()
+    {
+        frozen = true;
+    }
+
+    Collection<Object> values()
+    {
+        return values.values();
+    }
+
     private Environment ancestor(int distance)
     {
         Environment env = this;
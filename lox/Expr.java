@@ -1,8 +1,11 @@
 package lox;
 
+import java.io.Serializable;
 import java.util.List;
 
-abstract class Expr
+// The nodes are saved in snapshots, which Lox.VERSION guards instead of UIDs.
+@SuppressWarnings("serial")
+abstract class Expr implements Serializable
 {
     abstract <T> T accept(Visitor<T> vis);
 
@@ -95,6 +98,8 @@ abstract class Expr
     static class Variable extends Expr 
     {
         final Token name;
+        // Scopes between the use and the declaration, -1 for a global, set by the Resolver.
+        int depth = -1;
     
         Variable(Token name) 
         {
@@ -112,6 +117,8 @@ abstract class Expr
     {       
         final Token name;                      
         final Expr value;
+        // Scopes between the use and the declaration, -1 for a global, set by the Resolver.
+        int depth = -1;
 
         Assign(Token name, Expr value) 
         {       
@@ -217,6 +224,8 @@ abstract class Expr
     static class Self extends Expr
     {
         Token keyword;
+        // Scopes between the use and the declaration, -1 for a global, set by the Resolver.
+        int depth = -1;
 
         Self(Token keyword)
         {
@@ -232,6 +241,10 @@ abstract class Expr
     static class Super extends Expr
     {
         Token keyword, method;
+        // Scopes between the use and the declaration, -1 for a global, set by the Resolver.
+        int depth = -1;
+        // The method of the superclass last time, see LoxClass.CachedMethod.
+        transient LoxClass.CachedMethod cached;
 
         Super(Token keyword, Token method)
         {
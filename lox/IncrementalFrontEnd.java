@@ -0,0 +1,197 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/* Lexes, parses and resolves successive versions of one source, redoing
+only the top-level declarations an edit touched. Top-level declarations
+resolve independently of each other, since globals are never in the
+resolver's scopes, so an untouched declaration keeps its Stmt tree and its
+resolution. Declarations before the edit are kept as they are. Lexing and
+parsing start again at the end of the last of them and stop as soon as they
+reach an old declaration after the edit that still starts on the same
+column, from where the old declarations are kept too. When the edit added or
+removed lines, the tokens of the declarations kept after it are moved by as
+many lines. */
+class IncrementalFrontEnd
+{
+    private static class Decl
+    {
+        final Stmt stmt;
+        // Every Token the parser made for it, to move them to other lines.
+        final List<Token> tokens;
+        // Source range, from the first token's start to the last token's end.
+        int start, end;
+        // Lexer position after the first token and after the last one.
+        int line, endLine;
+        final int col, endCol;
+        final boolean failed;
+
+        Decl(Stmt stmt, List<Token> tokens, int start, int end, int line, int col, int endLine, int endCol, boolean failed)
+        {
+            this.stmt = stmt;
+            this.tokens = tokens;
+            this.start = start;
+            this.end = end;
+            this.line = line;
+            this.col = col;
+            this.endLine = endLine;
+            this.endCol = endCol;
+            this.failed = failed;
+        }
+    }
+
+    private final LoxContext context;
+    private CharSequence source = "";
+    private List<Decl> decls = new ArrayList<>();
+    // Whether there were errors after the last declaration.
+    private boolean trailingFailed = false;
+
+    IncrementalFrontEnd(LoxContext context)
+    {
+        this.context = context;
+    }
+
+    /* Brings the program up to date with the new text of the source. Errors
+    are reported to the context like a full run would, the
+    statements of declarations with errors are null. */
+    List<Stmt> update(CharSequence text)
+    {
+        int oldLength = source.length(), newLength = text.length();
+        int prefix = 0;
+        while(prefix < oldLength && prefix < newLength && source.charAt(prefix) == text.charAt(prefix))
+        {
+            prefix++;
+        }
+        int suffix = 0;
+        while(suffix < oldLength - prefix && suffix < newLength - prefix
+            && source.charAt(oldLength-1-suffix) == text.charAt(newLength-1-suffix))
+        {
+            suffix++;
+        }
+        int shift = newLength - oldLength;
+
+        /* Keep what ends before the edit, declarations with errors are always
+        redone. The parser looked at the token after a declaration (for an
+        'else' say), so the last one before the edit is redone as well. */
+        int first = 0;
+        while(first < decls.size() && decls.get(first).end <= prefix && !decls.get(first).failed)
+        {
+            first++;
+        }
+        first = Math.max(first - 1, 0);
+        List<Decl> updated = new ArrayList<>(decls.subList(0, first));
+        int start = 0, line = 1, col = 0;
+        if(first > 0)
+        {
+            Decl last = decls.get(first-1);
+            start = last.end;
+            line = last.endLine;
+            col = last.endCol;
+        }
+
+        TokenBuffer tokens = new Tokenizer(text, start, line, col, context).getTokens();
+        Parser parser = new Parser(tokens, context);
+        int reuse = decls.size(), lineShift = 0;
+        boolean hadError = context.hadError;
+        context.hadError = false;
+        while(parser.hasNext())
+        {
+            int begin = parser.position();
+            int at = tokens.start(begin);
+            if(at >= newLength - suffix)
+            {
+                int old = find(at - shift, first);
+                if(old != -1 && decls.get(old).col == tokens.col(begin))
+                {
+                    reuse = old;
+                    lineShift = tokens.line(begin) - decls.get(old).line;
+                    break;
+                }
+            }
+            List<Token> made = new ArrayList<>();
+            tokens.record(made);
+            Stmt stmt = parser.next();
+            if(!context.hadError)
+            {
+                new Resolver(context).resolve(stmt);
+            }
+            int last = parser.position() - 1;
+            tokens.record(null);
+            updated.add(new Decl(stmt, made, at, tokens.end(last), tokens.line(begin), tokens.col(begin),
+                tokens.line(last), tokens.col(last), context.hadError));
+            hadError |= context.hadError;
+            context.hadError = false;
+        }
+        if(reuse == decls.size())
+        {
+            trailingFailed = context.hadError;
+        }
+        context.hadError |= hadError;
+
+        for(int i=reuse;i<decls.size();i++)
+        {
+            Decl decl = decls.get(i);
+            decl.start += shift;
+            decl.end += shift;
+            if(lineShift != 0)
+            {
+                decl.line += lineShift;
+                decl.endLine += lineShift;
+                for(Token token : decl.tokens)
+                {
+                    token.line += lineShift;
+                }
+            }
+            updated.add(decl);
+        }
+        decls = updated;
+        source = text;
+
+        List<Stmt> statements = new ArrayList<>(decls.size());
+        for(Decl decl : decls)
+        {
+            statements.add(decl.stmt);
+        }
+        return statements;
+    }
+
+    /* Index of the old declaration starting at pos, or -1. Only declarations
+    after the last one with errors are looked at, as errors have to be found
+    again to be reported, and none at all when there were errors after the
+    last declaration. */
+    private int find(int pos, int from)
+    {
+        if(trailingFailed)
+        {
+            return -1;
+        }
+        int low = from, high = decls.size() - 1;
+        for(int i=high;i>=from;i--)
+        {
+            if(decls.get(i).failed)
+            {
+                low = i + 1;
+                break;
+            }
+        }
+        while(low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            int start = decls.get(mid).start;
+            if(start < pos)
+            {
+                low = mid + 1;
+            }
+            else if(start > pos)
+            {
+                high = mid - 1;
+            }
+            else
+            {
+                return mid;
+            }
+        }
+        return -1;
+    }
+}
@@ -4,46 +4,87 @@ import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.HashMap;
+import java.io.Serializable;
 
 class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
 {
-    public Environment globals = new Environment();
-    private Environment environment = globals;
+    public final Environment globals;
+    private Environment environment;
+    // Where errors and printed values go.
+    final LoxContext context;
     /* Sentinel value to seperate it from null, since
     null might represent nil. */
-    private static Object unitialized = new Object();
-    private static Map<Expr, Integer> locals = new HashMap<>();
+    private static final Object unitialized = new Uninitialized();
+    /* Safepoints left before the limits of the context are checked again.
+    Looking at the clock and the interrupt flag only every so often keeps
+    a safepoint down to a decrement. */
+    private static final int CHECK_EVERY = 1024;
+    private long untilCheck = CHECK_EVERY;
+    // Steps the run may make after untilCheck, and when it must end, 0 for never.
+    private long fuel = Long.MAX_VALUE;
+    private long deadline = 0;
+    /* Bytes the run may still allocate, see LoxContext.setAllocationLimit.
+    Only what can grow without bound is counted, by rough sizes: instances,
+    the strings + makes and variables. */
+    private long memoryLeft = Long.MAX_VALUE;
+    // Roughly what the globals hold, counted against every run over them.
+    private long retained = 0;
+    static final int INSTANCE_BYTES = 32, SLOT_BYTES = 8, STRING_BYTES = 40, VARIABLE_BYTES = 48;
 
-    Interpreter()
+    // Still the one sentinel after a round trip through a snapshot.
+    private static final class Uninitialized implements Serializable
     {
-        globals.define("clock", new LoxCallable(){
-            @Override
-            public int arity()
-            {
-                return 0;
-            }
+        private static final long serialVersionUID = 1L;
 
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arg)
-            {
-                return (double) System.currentTimeMillis()/1000;
-            }
+        private Object readResolve()
+        {
+            return unitialized;
+        }
+    }
 
-            @Override
-            public String toString()
-            {
-                return "<native fn>";
-            }
-        });
+    private static final class Clock implements LoxCallable, Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public int arity()
+        {
+            return 0;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arg)
+        {
+            return (double) System.currentTimeMillis()/1000;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "<native fn>";
+        }
     }
 
-    void resolve(Expr expr, int depth)
+    Interpreter(LoxContext context)
     {
-        locals.put(expr, depth);
+        this(context, new Environment());
+        globals.define(Symbol.intern("clock"), new Clock());
+    }
+
+    // Starts from globals that already hold the natives, those of a snapshot.
+    Interpreter(LoxContext context, Environment globals)
+    {
+        this.context = context;
+        this.globals = globals;
+        this.environment = globals;
     }
 
     public void interpret(List<Stmt> stmts)
     {
+        fuel = context.fuel == 0 ? Long.MAX_VALUE : context.fuel;
+        deadline = context.timeLimit == 0 ? 0 : System.nanoTime() + context.timeLimit;
+        untilCheck = 0;
+        memoryLeft = context.allocationLimit == 0 ? Long.MAX_VALUE : context.allocationLimit - retained;
         try
         {
             for(Stmt stmt : stmts)
@@ -53,8 +94,73 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
         }
         catch(RuntimeError error)
         {
-            Lox.runtimeError(error);
+            context.runtimeError(error);
+        }
+    }
+
+    /* Called on every loop back-edge and function call, so that a run that
+    never ends still stops once it is out of steps or time, or its thread is
+    interrupted. */
+    void safepoint(Token at)
+    {
+        if(--untilCheck < 0)
+        {
+            checkLimits(at);
+        }
+    }
+
+    private void checkLimits(Token at)
+    {
+        if(fuel == 0)
+        {
+            throw new LimitExceeded(at, "Ran out of steps.");
+        }
+        if(Thread.currentThread().isInterrupted())
+        {
+            throw new LimitExceeded(at, "Interrupted.");
+        }
+        if(deadline != 0 && System.nanoTime() - deadline > 0)
+        {
+            throw new LimitExceeded(at, "Ran out of time.");
+        }
+        long steps = Math.min(CHECK_EVERY, fuel);
+        fuel -= steps;
+        untilCheck = steps - 1;
+    }
+
+    // Counts bytes the run is about to allocate, garbage included.
+    void allocate(Token at, long bytes)
+    {
+        memoryLeft -= bytes;
+        if(memoryLeft < 0)
+        {
+            throw new LimitExceeded(at, "Allocation limit exceeded.");
+        }
+    }
+
+    /* Counts a variable once it is defined, and keeps count of what the
+    globals hold, as they outlive the run. */
+    private void allocateVariable(Token name, Object value)
+    {
+        allocate(name, VARIABLE_BYTES);
+        if(environment == globals)
+        {
+            retained += VARIABLE_BYTES + sizeOf(value);
+        }
+    }
+
+    // Rough size of what a value holds itself, not counting what it refers to.
+    private static long sizeOf(Object value)
+    {
+        if(value instanceof String)
+        {
+            return STRING_BYTES + ((String) value).length();
+        }
+        if(value instanceof LoxInstance)
+        {
+            return ((LoxInstance) value).bytes();
         }
+        return 0;
     }
 
     @Override
@@ -68,20 +174,34 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
             {
                 throw new RuntimeError(stmt.superclass.name, "Superclass must be a class.");
             }
+            if(((LoxClass) superclass).isStruct())
+            {
+                throw new RuntimeError(stmt.superclass.name, "Cannot inherit from a struct.");
+            }
         }
-        environment.define(stmt.name.lexeme, null);
+        environment.define(stmt.name.symbol, null);
+        allocateVariable(stmt.name, null);
         if(stmt.superclass != null)
         {
             environment = new Environment(environment);
-            environment.define("super", superclass);
+            environment.define(Symbol.SUPER, superclass);
         }
-        Map<String, LoxFunction> methods = new HashMap<>();
+        Map<Symbol, LoxFunction> methods = new HashMap<>();
         for(Stmt.Function method : stmt.methods)
         {
-            LoxFunction function = new LoxFunction(method, environment,  method.name.lexeme.equals("init"));
-            methods.put(method.name.lexeme, function);
+            LoxFunction function = new LoxFunction(method, environment,  method.name.symbol == Symbol.INIT);
+            methods.put(method.name.symbol, function);
         }
-        LoxClass klass = new LoxClass(stmt.name.lexeme, (LoxClass) superclass, methods);
+        List<Symbol> fields = null;
+        if(stmt.fields != null)
+        {
+            fields = new ArrayList<>();
+            for(Token field : stmt.fields)
+            {
+                fields.add(field.symbol);
+            }
+        }
+        LoxClass klass = new LoxClass(stmt.name.lexeme, (LoxClass) superclass, methods, fields);
         if(superclass != null)
         {
             environment = environment.enclosing;
@@ -93,21 +213,27 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
     @Override
     public Object visitSuperExpr(Expr.Super expr)
     {
-        int dist = locals.get(expr);
-        LoxClass superclass = (LoxClass) environment.getAt(dist, "super");
-        LoxInstance object = (LoxInstance) environment.getAt(dist-1, "self");
-        LoxFunction method = superclass.findMethod(object, expr.method.lexeme);
-        if(method == null)
+        int dist = expr.depth;
+        LoxClass superclass = (LoxClass) environment.getAt(dist, Symbol.SUPER);
+        LoxClass.CachedMethod cached = expr.cached;
+        if(cached == null || cached.klass != superclass)
         {
-            throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
+            LoxFunction method = superclass.methodOf(expr.method.symbol);
+            if(method == null)
+            {
+                throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
+            }
+            cached = new LoxClass.CachedMethod(superclass, method);
+            expr.cached = cached;
         }
-        return method;
+        LoxInstance object = (LoxInstance) environment.getAt(dist-1, Symbol.SELF);
+        return cached.method.bind(object);
     }
 
     @Override                                    
     public Object visitSelfExpr(Expr.Self expr) 
     {
-        return lookUpVariables(expr.keyword, expr); 
+        return lookUpVariables(expr.keyword, expr.depth); 
     } 
 
     @Override
@@ -130,7 +256,12 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
             throw new RuntimeError(expr.name, "Not an instance of a class.");
         }
         Object value = evaluate(expr.value);
-        ((LoxInstance)object).set(expr.name, value);
+        LoxInstance instance = (LoxInstance)object;
+        if(instance.isStruct())
+        {
+            throw new RuntimeError(expr.name, "Cannot modify a field of a struct.");
+        }
+        instance.set(expr.name, value);
         return value;
     }
 
@@ -157,7 +288,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
     public Void visitPrintStmt(Stmt.Print stmt)
     {
         Object val = evaluate(stmt.expr);
-        System.out.println(stringify(val));
+        context.out.println(stringify(val));
         return null;
     }
 
@@ -168,7 +299,8 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
         if (stmt.initializer != null) {             
             value = evaluate(stmt.initializer);       
         }
-        environment.define(stmt.name, stmt.name.lexeme, value);
+        environment.define(stmt.name, value);
+        allocateVariable(stmt.name, value);
         return null;                                
     }
     
@@ -215,6 +347,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
     {
         while(isTruthy(evaluate(stmt.cond)))
         {
+            safepoint(stmt.keyword);
             try
             {
                 execute(stmt.body);
@@ -239,6 +372,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
     {
         do
         {
+            safepoint(stmt.keyword);
             try
             {
                 execute(stmt.body);
@@ -268,6 +402,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
         }
         while(true)
         {
+            safepoint(stmt.keyword);
             if(stmt.cond != null)
             {
                 if(!isTruthy(evaluate(stmt.cond)))
@@ -306,7 +441,8 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
     public Void visitFunctionStmt(Stmt.Function stmt)
     {
         LoxFunction func = new LoxFunction(stmt, environment, false);
-        environment.define(stmt.name.lexeme, func);
+        environment.define(stmt.name.symbol, func);
+        allocateVariable(stmt.name, null);
         return null;
     }
 
@@ -383,7 +519,9 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
             case PLUS:
                 if(left instanceof String || right instanceof String)
                 {
-                    return stringify(left) + stringify(right);
+                    String first = stringify(left), second = stringify(right);
+                    allocate(expr.op, STRING_BYTES + first.length() + second.length());
+                    return first + second;
                 }
                 if(left instanceof Double && right instanceof Double)
                 {
@@ -527,7 +665,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
     @Override                                            
     public Object visitVarExpr(Expr.Variable expr) 
     {
-        Object value = lookUpVariables(expr.name, expr);     
+        Object value = lookUpVariables(expr.name, expr.depth);     
         if(value == unitialized)
         {
             throw new RuntimeError(expr.name, "Variable must be initialized before use");
@@ -535,10 +673,9 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
         return value;
     }
 
-    private Object lookUpVariables(Token name, Expr expr)
+    private Object lookUpVariables(Token name, int distance)
     {
-        Integer distance = locals.get(expr);
-        if(distance != null)
+        if(distance != -1)
         {
             return environment.getAt(distance, name);
         }
@@ -567,6 +704,10 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
             throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got "
             + arguments.size() + ".");
         }
+        if(function instanceof LoxClass)
+        {
+            allocate(expr.paren, INSTANCE_BYTES + SLOT_BYTES * ((LoxClass) function).slotCount());
+        }
         return function.call(this, arguments);
     }
 
@@ -579,7 +720,15 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
     public Object visitAssignExpr(Expr.Assign expr) 
     {
         Object value = evaluate(expr.value);
-        environment.assign(expr.name, value);          
+        if(expr.depth != -1)
+        {
+            environment.assign(expr.name, value);
+        }
+        else
+        {
+            Object old = globals.assign(expr.name, value);
+            retained += sizeOf(value) - sizeOf(old);
+        }
         return value;                                  
     }
 
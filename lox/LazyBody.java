@@ -0,0 +1,63 @@
+package lox;
+
+import java.util.List;
+
+/* Body of a function that was only pre-parsed. The parser records where the
+body starts in the token buffer, the resolver leaves behind the scopes the
+body would have been resolved in, and the first call parses and resolves it
+for real. */
+class LazyBody
+{
+    private final TokenBuffer tokens;
+    private final int start;
+    private Resolver resolver;
+    /* Written once, when the body is compiled, so calls after the first
+    read it without taking the lock. */
+    private volatile List<Stmt> body;
+    private boolean failed = false;
+
+    LazyBody(TokenBuffer tokens, int start)
+    {
+        this.tokens = tokens;
+        this.start = start;
+    }
+
+    void setResolver(Resolver resolver)
+    {
+        this.resolver = resolver;
+    }
+
+    List<Stmt> statements(LoxContext context, Token name)
+    {
+        List<Stmt> compiled = body;
+        return compiled != null ? compiled : compile(context, name);
+    }
+
+    // Errors go to the context of the first call.
+    private synchronized List<Stmt> compile(LoxContext context, Token name)
+    {
+        if(body == null && !failed)
+        {
+            boolean hadError = context.hadError;
+            context.hadError = false;
+            List<Stmt> statements = new Parser(tokens, start, true, context).parseBody();
+            if(!context.hadError)
+            {
+                resolver.resolve(statements);
+            }
+            failed = context.hadError;
+            context.hadError = hadError || failed;
+            // The scopes are not needed any more either way.
+            resolver = null;
+            if(!failed)
+            {
+                body = statements;
+            }
+        }
+        if(failed)
+        {
+            throw new RuntimeError(name, "Cannot compile body of '" + name.lexeme + "'.");
+        }
+        return body;
+    }
+}
@@ -0,0 +1,12 @@
+package lox;
+
+/* A run stopped by the limits of its context rather than by the script. */
+class LimitExceeded extends RuntimeError
+{
+    private static final long serialVersionUID = 1L;
+
+    LimitExceeded(Token token, String message)
+    {
+        super(token, message);
+    }
+}
@@ -2,28 +2,91 @@ package lox;
 
 import java.io.BufferedReader;                               
 import java.io.IOException;                                  
-import java.io.InputStreamReader;                            
-import java.nio.charset.Charset;                             
-import java.nio.file.Files;                                  
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;                            
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;                                  
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
 import java.util.List;
 
 public class Lox
 {
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
-    private static final Interpreter interpreter = new Interpreter();
+    // Bumped whenever the front end changes what a program compiles to.
+    static final String VERSION = "jlox-4";
+    private final LoxContext context;
+    private Interpreter interpreter;
+    // Pre-parse function bodies and compile them on their first call.
+    private boolean lazy = false;
+    // Keep running the file again whenever it changes.
+    private boolean watch = false;
+    // Run each top-level declaration as soon as it is parsed.
+    private boolean stream = false;
+    // Keep resolved programs in the script cache.
+    private boolean cache = false;
+    // Run every script of a directory quietly, see train().
+    private boolean train = false;
+    // Start from the globals saved in this snapshot.
+    private String snapshot = null;
+    // Save the globals to this snapshot after a run without errors.
+    private String saveSnapshot = null;
+    // Serve requests of lox.Client on this Unix domain socket.
+    private String server = null;
+    private static final String USAGE = "Usage: ./lox [--lazy] [--watch] [--stream] [--cache] [--snapshot file] [--save-snapshot file] [path-to-file]"
+        + " | --train [dir] | --server socket";
+
+    /* One run of the command line, with its flags. The server makes one
+    for each request, so requests on different threads keep to themselves. */
+    private Lox(PrintStream out, PrintStream err)
+    {
+        context = new LoxContext(out, err, false);
+        interpreter = new Interpreter(context);
+    }
 
     public static void main(String args[]) throws IOException
     {
-        if(args.length > 1)
+        new Lox(System.out, System.err).start(args);
+    }
+
+    private void start(String[] args) throws IOException
+    {
+        int arg = options(args);
+        if(arg == -1 || args.length - arg > 1)
+        {
+            usage();
+        }
+        if(server != null)
+        {
+            if(args.length - arg != 0)
+            {
+                usage();
+            }
+            Server.serve(Paths.get(server));
+            return;
+        }
+        if(!loadSnapshot())
+        {
+            System.exit(66);
+        }
+        if(train)
+        {
+            // The examples of the working directory without a directory.
+            train(args.length - arg == 1 ? args[arg] : "examples");
+        }
+        else if(args.length - arg == 1 && watch)
         {
-            System.out.println("Usage: ./lox [path-to-file]");
-            System.exit(64);
+            watchFile(args[arg]);
         }
-        else if(args.length == 1)
+        else if(args.length - arg == 1)
         {
-            runFile(args[0]);
+            int code = runFile(args[arg]);
+            if(code != 0)
+            {
+                System.exit(code);
+            }
         }
         else
         {
@@ -31,86 +94,306 @@ public class Lox
         }
     }
 
-    private static void runFile(String path) throws IOException
+    // Sets the flags, returns the index of the first other argument or -1.
+    private int options(String[] args)
     {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
-        if(hadError)
+        int arg = 0;
+        for(;arg<args.length && args[arg].startsWith("--");arg++)
         {
-            System.exit(65);
+            switch(args[arg])
+            {
+                case "--lazy":
+                    lazy = true;
+                    break;
+                case "--watch":
+                    watch = true;
+                    break;
+                case "--stream":
+                    stream = true;
+                    break;
+                case "--cache":
+                    cache = true;
+                    break;
+                case "--train":
+                    train = true;
+                    break;
+                case "--snapshot":
+                    snapshot = valueOf(args, ++arg);
+                    break;
+                case "--save-snapshot":
+                    saveSnapshot = valueOf(args, ++arg);
+                    break;
+                case "--server":
+                    server = valueOf(args, ++arg);
+                    break;
+                default:
+                    return -1;
+            }
+            if(arg == args.length)
+            {
+                // The last flag is missing its value.
+                return -1;
+            }
         }
-        if(hadRuntimeError)
+        if(saveSnapshot != null)
         {
-            System.exit(70);    
+            // Pre-parsed bodies point into the token buffer, which is not saved.
+            lazy = false;
         }
+        return arg;
     }
 
-    private static void runPrompt() throws IOException
+    private static void usage()
     {
-        InputStreamReader input = new InputStreamReader(System.in);
-        BufferedReader br = new BufferedReader(input);
+        System.out.println(USAGE);
+        System.exit(64);
+    }
 
-        while(true)
+    private static String valueOf(String[] args, int arg)
+    {
+        return arg < args.length ? args[arg] : null;
+    }
+
+    private boolean loadSnapshot()
+    {
+        if(snapshot == null)
         {
-            System.out.print("lox> ");
-            run(br.readLine());
-            hadError = false;
-            hadRuntimeError = false;
+            return true;
+        }
+        try
+        {
+            interpreter = Snapshot.load(Paths.get(snapshot), context);
+            return true;
+        }
+        catch(IOException e)
+        {
+            context.err.println("Cannot load snapshot: " + e.getMessage());
+            return false;
         }
     }
 
-    private static void run(String source)
+    /* Runs one request to the server as a fresh process would run these
+    arguments: the flags, errors and globals of other requests are not
+    seen, only the loaded and compiled classes are shared. */
+    static int runRequest(String[] args, PrintStream out, PrintStream err) throws IOException
     {
-        Tokenizer tokenizer = new Tokenizer(source);
-        tokenizer.scanTokens();
-        List<Token> tokens = tokenizer.getTokens();
+        return new Lox(out, err).request(args);
+    }
 
-        if(hadError)
+    private int request(String[] args) throws IOException
+    {
+        int arg = options(args);
+        if(arg == -1 || args.length - arg != 1 || watch || train || server != null)
         {
-            return;
+            context.err.println(USAGE);
+            return 64;
+        }
+        if(!loadSnapshot())
+        {
+            return 66;
         }
+        return runFile(args[arg]);
+    }
 
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
-        if(hadError)
+    // The exit code of running the file.
+    private int runFile(String path) throws IOException
+    {
+        CharSequence source = SourceFile.open(Paths.get(path));
+        if(stream)
         {
-            return;
+            runStreaming(source);
         }
-        Resolver resolver = new Resolver(interpreter);
-        resolver.resolve(statements);   
-        if(hadError)
+        else if(cache)
         {
-            return;
+            runCached(source);
         }
-        interpreter.interpret(statements);
+        else
+        {
+            run(source);
+        }
+        if(context.hadError)
+        {
+            return 65;
+        }
+        if(context.hadRuntimeError)
+        {
+            return 70;
+        }
+        return writeSnapshot();
     }
 
-    static void error(int line, int col, String message)
+    private int writeSnapshot()
     {
-        report(line, col, "", message); 
+        if(saveSnapshot == null)
+        {
+            return 0;
+        }
+        try
+        {
+            Snapshot.save(Paths.get(saveSnapshot), interpreter);
+            return 0;
+        }
+        catch(IOException e)
+        {
+            context.err.println("Cannot save snapshot: " + e.getMessage());
+            return 74;
+        }
     }
 
-    private static void report(int line, int col, String where, String message)
+    /* Runs the file on every change, in a fresh interpreter each time. Only
+    the declarations an edit touched go through the front end again. */
+    private void watchFile(String path) throws IOException
     {
-        System.err.println("[line " + line +", col " + col + "] Error" + where + ":" + message);
-        hadError = true;
+        Path file = Paths.get(path);
+        IncrementalFrontEnd frontEnd = new IncrementalFrontEnd(context);
+        FileTime seen = null;
+        while(true)
+        {
+            FileTime modified = Files.getLastModifiedTime(file);
+            if(!modified.equals(seen))
+            {
+                seen = modified;
+                List<Stmt> statements = frontEnd.update(SourceFile.open(file));
+                if(!context.hadError)
+                {
+                    new Interpreter(context).interpret(statements);
+                }
+                context.hadError = false;
+                context.hadRuntimeError = false;
+            }
+            try
+            {
+                Thread.sleep(200);
+            }
+            catch(InterruptedException e)
+            {
+                return;
+            }
+        }
     }
 
-    static void error(Token token, String message)
+    /* Runs every script in the directory, eagerly and lazily, with all
+    output thrown away. The launcher does this once while the JVM records
+    the classes it loads into a class data sharing archive. */
+    private void train(String path) throws IOException
     {
-        if(token.type == TokenType.END)
+        PrintStream sink = new PrintStream(OutputStream.nullOutputStream());
+        try(DirectoryStream<Path> scripts = Files.newDirectoryStream(Paths.get(path), "*.lox"))
         {
-            report(token.line, token.col, " at end", message);
+            for(Path script : scripts)
+            {
+                for(boolean lazy : new boolean[]{false, true})
+                {
+                    LoxContext quiet = new LoxContext(sink, sink, false);
+                    List<Stmt> statements = compile(quiet, SourceFile.open(script), lazy);
+                    if(statements != null)
+                    {
+                        new Interpreter(quiet).interpret(statements);
+                    }
+                }
+            }
         }
-        else
+    }
+
+    private void runPrompt() throws IOException
+    {
+        InputStreamReader input = new InputStreamReader(System.in);
+        BufferedReader br = new BufferedReader(input);
+
+        while(true)
         {
-            report(token.line, token.col, " at '" + token.lexeme + "'", message);
+            System.out.print("lox> ");
+            run(br.readLine());
+            context.hadError = false;
+            context.hadRuntimeError = false;
         }
     }
 
-    public static void runtimeError(RuntimeError error) 
+    /* Lexes, parses, resolves and runs one top-level declaration at a time.
+    Tokens are dropped as soon as they are parsed (lazy bodies still need
+    theirs), and a declaration is garbage once it ran unless functions of
+    it live on. After a syntax error the rest is only parsed, to report any
+    further errors. */
+    private void runStreaming(CharSequence source)
     {
-        System.err.println(error.getMessage() + ": [line " + error.token.line + " col " + error.token.col + "]");   
-        hadRuntimeError = true;                     
+        TokenBuffer tokens = new Tokenizer(source, context).getTokens();
+        Parser parser = new Parser(tokens, 0, lazy, context);
+        while(parser.hasNext())
+        {
+            Stmt stmt = parser.next();
+            if(!lazy)
+            {
+                tokens.release(parser.position());
+            }
+            if(context.hadError)
+            {
+                continue;
+            }
+            new Resolver(context).resolve(stmt);
+            if(context.hadError)
+            {
+                continue;
+            }
+            interpreter.interpret(Collections.singletonList(stmt));
+            if(context.hadRuntimeError)
+            {
+                return;
+            }
+        }
+    }
+
+    private void run(CharSequence source)
+    {
+        List<Stmt> statements = compile(context, source, lazy);
+        if(statements != null)
+        {
+            interpreter.interpret(statements);
+        }
+    }
+
+    /* Runs the cached program of the source if there is one, and otherwise
+    compiles it (never lazily, the cache holds whole programs) and caches it
+    for the next run. */
+    private void runCached(CharSequence source)
+    {
+        ScriptCache scripts = new ScriptCache(ScriptCache.defaultDir());
+        List<Stmt> statements = scripts.load(source);
+        if(statements == null)
+        {
+            statements = compile(context, source, false);
+            if(statements == null)
+            {
+                return;
+            }
+            scripts.store(source, statements, context);
+        }
+        interpreter.interpret(statements);
+    }
+
+    // Parses and resolves the source, null if there were errors, which went to the context.
+    static List<Stmt> compile(LoxContext context, CharSequence source, boolean lazy)
+    {
+        TokenBuffer tokens;
+        if(source.length() >= Tokenizer.PARALLEL_THRESHOLD && Runtime.getRuntime().availableProcessors() > 1)
+        {
+            tokens = Tokenizer.scanParallel(source, context);
+        }
+        else
+        {
+            tokens = new Tokenizer(source, context).getTokens();
+        }
+        Parser parser = new Parser(tokens, 0, lazy, context);
+        List<Stmt> statements = parser.parse();
+        if(context.hadError)
+        {
+            return null;
+        }
+        Resolver resolver = new Resolver(context);
+        resolver.resolve(statements);   
+        if(context.hadError)
+        {
+            return null;
+        }
+        return statements;
     }
-}
\ No newline at end of file
+}
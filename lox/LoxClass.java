@@ -1,19 +1,74 @@
 package lox;
 
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-class LoxClass implements LoxCallable
+class LoxClass implements LoxCallable, Serializable
 {
+    private static final long serialVersionUID = 1L;
+
     final String name;
-    private final Map<String, LoxFunction> methods;
+    /* Flattened method table, the superclass's methods are copied down
+    at class creation so a lookup never walks the inheritance chain. */
+    private final Map<Symbol, LoxFunction> methods;
     final LoxClass superclass;
+    private final LoxFunction initializer;
+    private final int arity;
+    /* Field layout shared by every instance of the class, instances keep
+    their values in an array indexed by these slots instead of a map each.
+    Classes of a prelude are used by every context at once, so new fields
+    take the next slot under a lock. */
+    private final Map<Symbol, Integer> slots = new ConcurrentHashMap<>();
+    private volatile int slotCount = 0;
+    /* Structs have a fixed layout made of their declared fields, and are
+    constructed positionally from them. */
+    private final boolean isStruct;
+
+    /* The method a super expression found in its superclass, kept on the
+    expression so super calls skip the method lookup. It is replaced as a
+    whole, so another thread never sees the method of one class paired with
+    another class. */
+    static final class CachedMethod
+    {
+        final LoxClass klass;
+        final LoxFunction method;
+
+        CachedMethod(LoxClass klass, LoxFunction method)
+        {
+            this.klass = klass;
+            this.method = method;
+        }
+    }
     
-    LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods)
+    LoxClass(String name, LoxClass superclass, Map<Symbol, LoxFunction> methods, List<Symbol> fields)
     {
         this.name = name;
-        this.methods = methods;
         this.superclass = superclass;
+        this.methods = new HashMap<>();
+        if(superclass != null)
+        {
+            this.methods.putAll(superclass.methods);
+        }
+        this.methods.putAll(methods);
+        // Only a class's own init runs, an inherited one has to be called through super.
+        this.initializer = methods.get(Symbol.INIT);
+        this.isStruct = fields != null;
+        if(isStruct)
+        {
+            for(Symbol field : fields)
+            {
+                slotFor(field);
+            }
+            this.arity = fields.size();
+        }
+        else
+        {
+            this.arity = initializer == null ? 0 : initializer.arity();
+        }
     }
 
     @Override
@@ -25,19 +80,17 @@ class LoxClass implements LoxCallable
     @Override
     public int arity()
     {
-        LoxFunction initializer = methods.get("init");
-        if(initializer == null)
-        {
-            return 0;
-        }
-        return initializer.arity();
+        return arity;
     }
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments)
     {
+        if(isStruct)
+        {
+            return new LoxInstance(this, arguments);
+        }
         LoxInstance instance = new LoxInstance(this);
-        LoxFunction initializer = methods.get("init");
         if(initializer != null)
         {
             initializer.bind(instance).call(interpreter, arguments);
@@ -45,16 +98,60 @@ class LoxClass implements LoxCallable
         return instance;
     }
 
-    public LoxFunction findMethod(LoxInstance instance, String name)
+    // The method unbound, null if there is none.
+    LoxFunction methodOf(Symbol name)
     {
-        if(methods.containsKey(name))
+        return methods.get(name);
+    }
+
+    public LoxFunction findMethod(LoxInstance instance, Symbol name)
+    {
+        LoxFunction method = methods.get(name);
+        if(method == null)
         {
-            return methods.get(name).bind(instance);
+            return null;
         }
-        if(superclass != null)
+        return method.bind(instance);
+    }
+
+    boolean isStruct()
+    {
+        return isStruct;
+    }
+
+    Collection<LoxFunction> methods()
+    {
+        return methods.values();
+    }
+
+    int slotOf(Symbol field)
+    {
+        Integer slot = slots.get(field);
+        return slot == null ? -1 : slot;
+    }
+
+    int slotFor(Symbol field)
+    {
+        Integer slot = slots.get(field);
+        if(slot != null)
         {
-            return superclass.findMethod(instance, name);
+            return slot;
         }
-        return null;
+        synchronized(slots)
+        {
+            slot = slots.get(field);
+            if(slot == null)
+            {
+                slot = slotCount;
+                slots.put(field, slot);
+                slotCount = slot + 1;
+            }
+            return slot;
+        }
+    }
+
+    int slotCount()
+    {
+        return slotCount;
     }
-}
\ No newline at end of file
+}
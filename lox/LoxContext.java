@@ -0,0 +1,130 @@
+package lox;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/* Everything one run of the interpreter used to keep in statics: the error
+flags, where printed output and diagnostics go, and the interpreter with
+its globals. A context is used from one thread at a time, and contexts
+share nothing but interned symbols and the frozen prelude of their engine,
+whose classes still lay out new fields for all of them, so any number of
+them can run at once. Contexts are made by a LoxEngine. */
+public class LoxContext
+{
+    final PrintStream out, err;
+    boolean hadError = false;
+    boolean hadRuntimeError = false;
+    private final boolean lazy;
+    // Loop iterations and calls a run may make, and its time in nanoseconds, 0 for no limit.
+    long fuel = 0;
+    long timeLimit = 0;
+    // Bytes a run may allocate, 0 for no limit.
+    long allocationLimit = 0;
+    // Frozen globals of the engine's prelude, or null.
+    private final Environment prelude;
+    // Made on the first run, the command line brings interpreters of its own.
+    private Interpreter interpreter;
+
+    LoxContext(PrintStream out, PrintStream err, boolean lazy)
+    {
+        this(out, err, lazy, null);
+    }
+
+    LoxContext(PrintStream out, PrintStream err, boolean lazy, Environment prelude)
+    {
+        this.out = out;
+        this.err = err;
+        this.lazy = lazy;
+        this.prelude = prelude;
+    }
+
+    // An interpreter with globals of its own, over the prelude if there is one.
+    Interpreter newInterpreter()
+    {
+        if(prelude == null)
+        {
+            return new Interpreter(this);
+        }
+        return new Interpreter(this, Environment.over(prelude));
+    }
+
+    /* Runs source with the globals that earlier runs in this context left
+    behind. Returns false if it had errors, which went to the error sink. */
+    public boolean run(CharSequence source)
+    {
+        hadError = false;
+        hadRuntimeError = false;
+        if(interpreter == null)
+        {
+            interpreter = newInterpreter();
+        }
+        List<Stmt> statements = Lox.compile(this, source, lazy);
+        if(statements != null)
+        {
+            interpreter.interpret(statements);
+        }
+        return !hadError && !hadRuntimeError;
+    }
+
+    /* Stops each later run once it has made steps loop iterations and
+    function calls, or has run for millis, or when its thread is
+    interrupted, as a runtime error. 0 means no limit. */
+    public void setLimits(long steps, long millis)
+    {
+        fuel = steps;
+        timeLimit = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /* Stops each later run, as a runtime error, once it has allocated about
+    bytes in instances, strings and variables. This is not a quota on live
+    memory: garbage counts as well, so a long run needs a limit for its
+    whole allocation. What the globals a run starts from hold is counted
+    against it as well, so the globals that run() keeps from one call to
+    the next cannot grow without bound either. 0 means no limit. */
+    public void setAllocationLimit(long bytes)
+    {
+        allocationLimit = bytes;
+    }
+
+    // Whether the last run had a syntax or resolution error.
+    public boolean hadError()
+    {
+        return hadError;
+    }
+
+    // Whether the last run stopped on a runtime error.
+    public boolean hadRuntimeError()
+    {
+        return hadRuntimeError;
+    }
+
+    void error(int line, int col, String message)
+    {
+        report(line, col, "", message);
+    }
+
+    private void report(int line, int col, String where, String message)
+    {
+        err.println("[line " + line +", col " + col + "] Error" + where + ":" + message);
+        hadError = true;
+    }
+
+    void error(Token token, String message)
+    {
+        if(token.type == TokenType.END)
+        {
+            report(token.line, token.col, " at end", message);
+        }
+        else
+        {
+            report(token.line, token.col, " at '" + token.lexeme + "'", message);
+        }
+    }
+
+    void runtimeError(RuntimeError error)
+    {
+        err.println(error.getMessage() + ": [line " + error.token.line + " col " + error.token.col + "]");
+        hadRuntimeError = true;
+    }
+}
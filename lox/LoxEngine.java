@@ -0,0 +1,97 @@
+package lox;
+
+import java.io.PrintStream;
+import java.util.List;
+
+/* Entry point for running Lox from other Java code. An engine only holds
+the settings its contexts are made with, so one engine can hand contexts to
+any number of threads:
+
+    LoxEngine engine = new LoxEngine();
+    LoxContext context = engine.newContext(out, err);
+    context.run("print 1 + 2;");
+
+Scripts that run many times with different inputs are prepared once and
+then run with the inputs as globals:
+
+    PreparedScript script = engine.prepare("print a + b;", err);
+    script.run(context, Map.of("a", 1, "b", 2));
+
+Functions and classes every context needs are run once as a prelude, and
+shared read-only by the contexts of the engine it returns:
+
+    LoxEngine withLib = engine.withPrelude(lib, out, err);
+*/
+public class LoxEngine
+{
+    // Pre-parse function bodies and compile them on their first call.
+    private final boolean lazy;
+    // Frozen globals every context starts from, or null.
+    private final Environment prelude;
+
+    public LoxEngine()
+    {
+        this(false);
+    }
+
+    public LoxEngine(boolean lazy)
+    {
+        this(lazy, null);
+    }
+
+    private LoxEngine(boolean lazy, Environment prelude)
+    {
+        this.lazy = lazy;
+        this.prelude = prelude;
+    }
+
+    /* Runs source once and returns an engine whose contexts all start with
+    the globals it defined, on top of this engine's prelude. The globals are
+    frozen and shared rather than copied, so a prelude costs a context
+    nothing. A context can still assign a prelude global, which gives it a
+    copy of its own, but the prelude's environments and instances are never
+    changed and setting a field of a prelude instance is a runtime error. Returns
+    null if the prelude has errors, which are reported to err. */
+    public LoxEngine withPrelude(CharSequence source, PrintStream out, PrintStream err)
+    {
+        LoxContext context = new LoxContext(out, err, false, prelude);
+        List<Stmt> program = Lox.compile(context, source, false);
+        if(program == null)
+        {
+            return null;
+        }
+        Interpreter interpreter = context.newInterpreter();
+        interpreter.interpret(program);
+        if(context.hadRuntimeError)
+        {
+            return null;
+        }
+        Prelude.freeze(interpreter.globals);
+        return new LoxEngine(lazy, interpreter.globals);
+    }
+
+    // A context printing to System.out and reporting errors to System.err.
+    public LoxContext newContext()
+    {
+        return newContext(System.out, System.err);
+    }
+
+    public LoxContext newContext(PrintStream out, PrintStream err)
+    {
+        return new LoxContext(out, err, lazy, prelude);
+    }
+
+    /* Compiles source once for running many times, see PreparedScript.
+    Returns null if it has errors, which are reported to err. Bodies are
+    always compiled up front, as a lazy body would be compiled by whichever
+    run calls it first. */
+    public PreparedScript prepare(CharSequence source, PrintStream err)
+    {
+        List<Stmt> program = Lox.compile(new LoxContext(err, err, false), source, false);
+        if(program == null)
+        {
+            return null;
+        }
+        return new PreparedScript(program);
+    }
+}
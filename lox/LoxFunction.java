@@ -1,9 +1,12 @@
 package lox;
 
+import java.io.Serializable;
 import java.util.List;
 
-class LoxFunction implements LoxCallable
+class LoxFunction implements LoxCallable, Serializable
 {
+    private static final long serialVersionUID = 1L;
+
     private final Stmt.Function decl;
     private final Environment closure;
     private final boolean isInitializer;
@@ -15,6 +18,11 @@ class LoxFunction implements LoxCallable
         this.isInitializer = isInitializer;
     }
 
+    Environment closure()
+    {
+        return closure;
+    }
+
     @Override
     public int arity()
     {
@@ -24,26 +32,28 @@ class LoxFunction implements LoxCallable
     @Override
     public Object call(Interpreter interpreter, List<Object> args)
     {
+        interpreter.safepoint(decl.name);
+        List<Stmt> body = decl.lazy == null ? decl.body : decl.lazy.statements(interpreter.context, decl.name);
         Environment env = new Environment(closure);
         for(int i=0;i<decl.params.size();i++)
         {
-            env.define(decl.params.get(i).lexeme, args.get(i));
+            env.define(decl.params.get(i).symbol, args.get(i));
         }
         try
         {
-            interpreter.executeBlock(decl.body, env);
+            interpreter.executeBlock(body, env);
         }
         catch(Return returnExpr)
         {
             if(isInitializer)
             {
-                return closure.getAt(0, "self");
+                return closure.getAt(0, Symbol.SELF);
             }
             return returnExpr.value;
         }
         if(isInitializer)
         {
-            return closure.getAt(0, "self");
+            return closure.getAt(0, Symbol.SELF);
         }
         return null;
     }
@@ -51,7 +61,7 @@ class LoxFunction implements LoxCallable
     public LoxFunction bind(LoxInstance instance)
     {
         Environment env = new Environment(closure);
-        env.define("self", instance);
+        env.define(Symbol.SELF, instance);
         return new LoxFunction(decl, env, isInitializer);
     }
 
@@ -1,18 +1,160 @@
 package lox;
 
-import java.util.Map;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
-class LoxInstance
+class LoxInstance implements Serializable
 {
+    private static final long serialVersionUID = 1L;
+
+    /* Marks a slot of the class layout that this instance has never set,
+    so that it can be told apart from a field holding nil. */
+    private static final Object ABSENT = new Absent();
+    private static final Object[] EMPTY = new Object[0];
+
+    // Still the one sentinel after a round trip through a snapshot.
+    private static final class Absent implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private Object readResolve()
+        {
+            return ABSENT;
+        }
+    }
+
+    /* Slots up to here are kept in the fields array, which grows as they
+    are set. Any further ones, of classes that collect many fields but few
+    on each instance, go in a map of the instance. */
+    private static final int DENSE_SLOTS = 32;
+
     private LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    private Object[] fields = EMPTY;
+    private Map<Integer, Object> sparse;
+    /* Struct fields holding numbers, unboxed: the bit of the slot is set in
+    unboxed and the number is in numbers rather than a Double in fields.
+    Both arrays then only hold their own fields, in slot order.
+    Structs are the record-like classes, made once and never changed, and
+    keeping their numbers out of Doubles saves most of their heap and the
+    collector most of its tracing. One bit per field is enough, as the
+    Parser allows no more than 8 fields in a struct. */
+    private double[] numbers;
+    private long unboxed;
+    // Made by a prelude, which every context sees but none may change.
+    private boolean frozen = false;
 
     LoxInstance(LoxClass klass)
     {
         this.klass = klass;
     }
 
+    // A struct, from the values of its fields in slot order.
+    LoxInstance(LoxClass klass, List<Object> values)
+    {
+        this.klass = klass;
+        int count = values.size();
+        for(int i=0;i<count;i++)
+        {
+            if(values.get(i) instanceof Double)
+            {
+                unboxed |= 1L << i;
+            }
+        }
+        int unboxedCount = Long.bitCount(unboxed);
+        if(unboxedCount > 0)
+        {
+            numbers = new double[unboxedCount];
+        }
+        if(unboxedCount < count)
+        {
+            fields = new Object[count - unboxedCount];
+        }
+        int number = 0, field = 0;
+        for(int i=0;i<count;i++)
+        {
+            if((unboxed >>> i & 1) != 0)
+            {
+                numbers[number++] = (Double) values.get(i);
+            }
+            else
+            {
+                fields[field++] = values.get(i);
+            }
+        }
+    }
+
+    boolean isStruct()
+    {
+        return klass.isStruct();
+    }
+
+    LoxClass klass()
+    {
+        return klass;
+    }
+
+    // The values of the fields that are not unboxed numbers.
+    List<Object> values()
+    {
+        List<Object> values = new ArrayList<>(Arrays.asList(fields));
+        if(sparse != null)
+        {
+            values.addAll(sparse.values());
+        }
+        return values;
+    }
+
+    // Rough size, see Interpreter.allocate.
+    long bytes()
+    {
+        long bytes = Interpreter.INSTANCE_BYTES + Interpreter.SLOT_BYTES * fields.length;
+        if(numbers != null)
+        {
+            bytes += Interpreter.SLOT_BYTES * numbers.length;
+        }
+        if(sparse != null)
+        {
+            bytes += Interpreter.VARIABLE_BYTES * sparse.size();
+        }
+        return bytes;
+    }
+
+    void freeze()
+    {
+        frozen = true;
+    }
+
+    /* Structs compare and hash by value, other instances by identity. */
+    @Override
+    public boolean equals(Object other)
+    {
+        if(this == other)
+        {
+            return true;
+        }
+        if(!isStruct() || !(other instanceof LoxInstance))
+        {
+            return false;
+        }
+        LoxInstance that = (LoxInstance) other;
+        return klass == that.klass && unboxed == that.unboxed
+            && Arrays.equals(numbers, that.numbers) && Arrays.equals(fields, that.fields);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        if(isStruct())
+        {
+            return (31 * klass.hashCode() + Arrays.hashCode(numbers)) * 31 + Arrays.hashCode(fields);
+        }
+        return super.hashCode();
+    }
+
     @Override
     public String toString()
     {
@@ -21,11 +163,13 @@ class LoxInstance
 
     Object get(Token name)
     {
-        if(fields.containsKey(name.lexeme))
+        int slot = klass.slotOf(name.symbol);
+        Object value = slot == -1 ? ABSENT : field(slot);
+        if(value != ABSENT)
         {
-            return fields.get(name.lexeme);
+            return value;
         }
-        LoxFunction method = klass.findMethod(this, name.lexeme);
+        LoxFunction method = klass.findMethod(this, name.symbol);
         if(method != null) 
         {
             return method; 
@@ -35,6 +179,53 @@ class LoxInstance
 
     void set(Token name, Object value) 
     {
-        fields.put(name.lexeme, value);   
+        if(frozen)
+        {
+            throw new RuntimeError(name, "Cannot change an instance of the prelude.");
+        }
+        int slot = klass.slotFor(name.symbol);
+        if(slot >= DENSE_SLOTS)
+        {
+            if(sparse == null)
+            {
+                sparse = new HashMap<>();
+            }
+            sparse.put(slot, value);
+            return;
+        }
+        if(slot >= fields.length)
+        {
+            // Doubling, but no wider than the fields the class has seen.
+            int length = Math.min(Math.max(4, 2 * fields.length), klass.slotCount());
+            length = Math.min(Math.max(length, slot + 1), DENSE_SLOTS);
+            int oldLength = fields.length;
+            fields = Arrays.copyOf(fields, length);
+            Arrays.fill(fields, oldLength, length, ABSENT);
+        }
+        fields[slot] = value;
     } 
-}
\ No newline at end of file
+
+    // The value of the field in the slot, ABSENT if it was never set.
+    private Object field(int slot)
+    {
+        if(unboxed != 0)
+        {
+            // A struct slot: count the unboxed ones before it.
+            int before = Long.bitCount(unboxed & ((1L << slot) - 1));
+            if((unboxed >>> slot & 1) != 0)
+            {
+                return numbers[before];
+            }
+            slot -= before;
+        }
+        if(slot < fields.length)
+        {
+            return fields[slot];
+        }
+        if(sparse != null)
+        {
+            return sparse.getOrDefault(slot, ABSENT);
+        }
+        return ABSENT;
+    }
+}
@@ -1,18 +1,40 @@
 package lox;
 
+import java.util.EnumSet;
 import java.util.List;
 import java.util.ArrayList;
 
 class Parser
 {
-    private final List<Token> tokens;
+    /* Token types are checked straight in the buffer, Token objects are only
+    materialized for the tokens the grammar actually keeps or reports. */
+    private final TokenBuffer tokens;
     private int curr = 0;
+    // Only scan function bodies for their extent, see LazyBody.
+    private final boolean lazy;
+    private final LoxContext context;
+    // What may come first in a statement, or close the block it would be in.
+    private static final EnumSet<TokenType> STATEMENT_START = EnumSet.of(
+        TokenType.LET, TokenType.DEFINE, TokenType.CLASS, TokenType.STRUCT, TokenType.PRINT,
+        TokenType.LBRACE, TokenType.RBRACE, TokenType.IF, TokenType.WHILE, TokenType.DO, TokenType.FOR,
+        TokenType.RETURN, TokenType.BREAK, TokenType.CONTINUE, TokenType.SWITCH, TokenType.CASE,
+        TokenType.DEFAULT, TokenType.ID, TokenType.STRING, TokenType.NUMBER, TokenType.TRUE,
+        TokenType.FALSE, TokenType.NIL, TokenType.SELF, TokenType.SUPER, TokenType.LPAREN,
+        TokenType.MINUS, TokenType.NOT, TokenType.BIT_NOT);
 
     private static class ParseError extends RuntimeException {}
 
-    Parser(List<Token> tokens)  
+    Parser(TokenBuffer tokens, LoxContext context)  
+    {
+        this(tokens, 0, false, context);
+    }
+
+    Parser(TokenBuffer tokens, int start, boolean lazy, LoxContext context)
     {
         this.tokens = tokens;
+        this.curr = start;
+        this.lazy = lazy;
+        this.context = context;
     }
 
     List<Stmt> parse()
@@ -32,6 +54,39 @@ class Parser
         }
     }
 
+    /* Declaration at a time access for callers that keep the program
+    split by top-level declaration. A declaration with errors is reported
+    and comes back as null. */
+    boolean hasNext()
+    {
+        return !atEnd();
+    }
+
+    Stmt next()
+    {
+        return declaration();
+    }
+
+    // Index of the next token in the buffer.
+    int position()
+    {
+        return curr;
+    }
+
+    /* Parses a function body that was skipped by a lazy parser, starting
+    right after its '{'. */
+    List<Stmt> parseBody()
+    {
+        try
+        {
+            return block();
+        }
+        catch(ParseError error)
+        {
+            return null;
+        }
+    }
+
     private Stmt declaration()
     {
         try
@@ -48,6 +103,10 @@ class Parser
             {
                 return classDeclaration();
             }
+            if(match(TokenType.STRUCT))
+            {
+                return structDeclaration();
+            }
             return statement();
         }
         catch(ParseError error)
@@ -73,7 +132,42 @@ class Parser
             methods.add((Stmt.Function)funDeclaration("method"));
         }
         consume(TokenType.RBRACE, "Expect '}' after class body.");
-        return new Stmt.Class(name, methods, superclass);
+        return new Stmt.Class(name, methods, superclass, null);
+    }
+
+    private Stmt structDeclaration()
+    {
+        Token name = consume(TokenType.ID, "Expect struct name.");
+        consume(TokenType.LPAREN, "Expect '(' after struct name.");
+        List<Token> fields = new ArrayList<>();
+        if(!check(TokenType.RPAREN))
+        {
+            do
+            {
+                if(fields.size() >= 8)
+                {
+                    error(peek(), "Cannot have more than 8 fields.");
+                }
+                Token field = consume(TokenType.ID, "Expect field name.");
+                for(Token other : fields)
+                {
+                    if(other.symbol == field.symbol)
+                    {
+                        error(field, "Duplicate field name.");
+                    }
+                }
+                fields.add(field);
+            } while(match(TokenType.COMMA));
+        }
+        consume(TokenType.RPAREN, "Expect ')' after fields.");
+        consume(TokenType.LBRACE, "Expect '{' before struct body.");
+        List<Stmt.Function> methods = new ArrayList<>();
+        while(!check(TokenType.RBRACE) && !atEnd())
+        {
+            methods.add((Stmt.Function)funDeclaration("method"));
+        }
+        consume(TokenType.RBRACE, "Expect '}' after struct body.");
+        return new Stmt.Class(name, methods, null, fields);
     }
 
     private Stmt funDeclaration(String kind)
@@ -94,10 +188,59 @@ class Parser
         }
         consume(TokenType.RPAREN, "Expect ')' after parameters.");
         consume(TokenType.LBRACE, "Expect '{' before " + kind + " body.");
+        if(lazy)
+        {
+            Stmt.Function function = new Stmt.Function(name, params, null);
+            function.lazy = new LazyBody(tokens, curr);
+            skipBody();
+            return function;
+        }
         List<Stmt> body = block();                                  
         return new Stmt.Function(name, params, body);
     }
 
+    /* Skips to the '}' matching an already consumed '{'. Besides unbalanced
+    braces, only a token that cannot start a statement right after a ';',
+    '{' or '}' (outside parentheses, where a for header has its ';') is found
+    this early. 'else' may follow the ';' or '}' that ends a then branch.
+    Other syntax errors in a body that is never called are not reported at
+    all. */
+    private void skipBody()
+    {
+        int depth = 1, parens = 0;
+        TokenType before = TokenType.LBRACE;
+        while(depth > 0)
+        {
+            if(atEnd())
+            {
+                throw error(peek(), "Expect '}' after block.");
+            }
+            TokenType type = tokens.type(curr);
+            if(parens == 0 && (before == TokenType.SEMI_COLON || before == TokenType.LBRACE || before == TokenType.RBRACE)
+                && !STATEMENT_START.contains(type) && !(before != TokenType.LBRACE && type == TokenType.ELSE))
+            {
+                throw error(peek(), "Expect expression");
+            }
+            switch(type)
+            {
+                case LBRACE:
+                    depth++;
+                    break;
+                case RBRACE:
+                    depth--;
+                    break;
+                case LPAREN:
+                    parens++;
+                    break;
+                case RPAREN:
+                    parens = Math.max(parens - 1, 0);
+                    break;
+            }
+            before = type;
+            skip();
+        }
+    }
+
     private Stmt varDeclaration()
     {
         Token name = consume(TokenType.ID, "Expect variable name");
@@ -173,7 +316,7 @@ class Parser
         {
             if(atEnd())
             {
-                Lox.error(peek(), "Unexpected end of file.");
+                throw error(peek(), "Unexpected end of file.");
             }
             else if(match(TokenType.CASE))
             {
@@ -187,7 +330,8 @@ class Parser
                     error(peek(), "Case expressions must be unique.");
                 }
                 consume(TokenType.COLON, "Expect ':' after case.");
-                Stmt toDo = null;
+                // A case with no statement falls through to the next one.
+                Stmt toDo = new Stmt.Block(new ArrayList<>());
                 if(!check(TokenType.CASE) && !check(TokenType.DEFAULT) && !check(TokenType.RBRACE))
                 {
                     toDo = statement();
@@ -202,7 +346,7 @@ class Parser
                     error(peek(), "Duplicate default stmt.");
                 }
                 consume(TokenType.COLON, "Expect ':' after case.");
-                Stmt toDo = null;
+                Stmt toDo = new Stmt.Block(new ArrayList<>());
                 if(!check(TokenType.CASE) && !check(TokenType.DEFAULT) && !check(TokenType.RBRACE))
                 {
                     toDo = statement();
@@ -233,6 +377,7 @@ class Parser
 
     private Stmt forStmt()
     {
+        Token keyword = previous();
         consume(TokenType.LPAREN, "Expect '(' after for.");
         Expr init = null;
         if(!match(TokenType.SEMI_COLON))
@@ -253,27 +398,29 @@ class Parser
             consume(TokenType.RPAREN, "Expect ')' after for expression.");
         }
         Stmt body = statement();
-        return new Stmt.For(init, cond, incr, body);
+        return new Stmt.For(keyword, init, cond, incr, body);
     }
 
     private Stmt doWhileStmt()
     {
+        Token keyword = previous();
         Stmt body = statement();
         consume(TokenType.WHILE, "Expect 'while' after do block.");
         consume(TokenType.LPAREN, "Expect '(' after while.");
         Expr cond = expression();
         consume(TokenType.RPAREN, "Expect ')' after while condition.");
         consume(TokenType.SEMI_COLON, "Expect ';' after do-while.");
-        return new Stmt.DoWhile(cond, body);
+        return new Stmt.DoWhile(keyword, cond, body);
     }
 
     private Stmt whileStatement()
     {
+        Token keyword = previous();
         consume(TokenType.LPAREN, "Expect '(' after while.");
         Expr cond = expression();
         consume(TokenType.RPAREN, "Expect ')' after while condition.");
         Stmt body = statement();
-        return new Stmt.While(cond, body);
+        return new Stmt.While(keyword, cond, body);
     }
 
     private Stmt ifStatement()
@@ -318,187 +465,99 @@ class Parser
 
     private Expr expression()
     {
-        return comma();
-    }
-
-    private Expr comma()
-    {
-        Expr left = assignment();
-        while(match(TokenType.COMMA))
-        {
-            Token op = previous();
-            Expr right = assignment();
-            left = new Expr.Binary(left, op, right);
-        }
-        return left;
+        return binary(COMMA);
     }
 
     private Expr assignment()
     {
-        
-        Expr expr = conditional();
-        if(match(TokenType.ASSIGN))
-        {
-            Token equals = previous();
-            Expr value = assignment();
-            if(expr instanceof Expr.Variable)
-            {
-                Token name = ((Expr.Variable)expr).name;
-                return new Expr.Assign(name, value);
-            }
-            else if(expr instanceof Expr.Get)
-            {
-                Expr.Get get = (Expr.Get) expr;
-                return new Expr.Set(get.name, get.object, value);
-            }
-            error(equals, "Invalid assignment target.");
-        }
-        return expr;
-    }
-
-    private Expr conditional()
-    {
-        Expr expr = logicalOr();
-        if(match(TokenType.QUESTION))
-        {
-            Expr thenBranch = expression();
-            consume(TokenType.COLON, "Expect ':' after conditional expressio.");
-            Expr elseBranch = conditional();
-            expr = new  Expr.Conditional(expr, thenBranch, elseBranch);
-        }
-        return expr;
-    }
-
-    private Expr logicalOr()
-    {
-        Expr left = logicalAnd();
-        while(match(TokenType.OR))
-        {
-            Token op = previous();
-            Expr right = logicalAnd();
-            left = new Expr.Logical(left, op, right);
-        }
-        return left;
-    }
-
-    private Expr logicalAnd()
-    {
-        Expr left = bitwiseOr();
-        while(match(TokenType.AND))
-        {
-            Token op = previous();
-            Expr right = bitwiseOr();
-            left = new Expr.Logical(left, op, right);
-        }
-        return left;
-    }
-
-    private Expr bitwiseOr()
-    {
-        Expr left = bitwiseXor();
-        while(match(TokenType.BIT_OR))
-        {
-            Token op = previous();
-            Expr right = bitwiseOr();
-            left = new Expr.Binary(left, op, right);
-        }
-        return left;
-    }
-
-    private Expr bitwiseXor()
-    {
-        Expr left = bitwiseAnd();
-        while(match(TokenType.BIT_XOR))
-        {
-            Token op = previous();
-            Expr right = bitwiseAnd();
-            left = new Expr.Binary(left, op, right);
-        }
-        return left;
-    }
-
-    private Expr bitwiseAnd()
-    {
-        Expr left = equality();
-        while(match(TokenType.BIT_AND))
-        {
-            Token op = previous();
-            Expr right = equality();
-            left = new Expr.Binary(left, op, right);
-        }
-        return left;
+        return binary(ASSIGNMENT);
     }
 
-    private Expr equality()
-    {
-        Expr left = comparison();
-        while(match(TokenType.NOT_EQUALS, TokenType.EQUALS))
-        {
-            Token op = previous();
-            Expr right = comparison();
-            left = new Expr.Binary(left, op, right);
-        }
-        return left;
-    }
+    /* Binary and ternary operators are parsed by precedence climbing, driven
+    by the binding powers in precedence[], instead of one method per level.
+    Higher binds tighter, 0 means the token cannot continue an expression. */
+    private static final int COMMA = 1, ASSIGNMENT = 2, CONDITIONAL = 3;
+    private static final int[] precedence = new int[TokenType.values().length];
+    private static final boolean[] rightAssociative = new boolean[TokenType.values().length];
 
-    private Expr comparison()
+    static
     {
-        Expr left = addition();
-        while(match(TokenType.GREATER, TokenType.GREATER_EQUALS, TokenType.LESSER, TokenType.LESSER_EQUALS))
-        {
-            Token op = previous();
-            Expr right = addition();
-            left = new Expr.Binary(left, op, right);
-        }
-        return left;
+        infix(TokenType.COMMA, COMMA, false);
+        infix(TokenType.ASSIGN, ASSIGNMENT, true);
+        infix(TokenType.QUESTION, CONDITIONAL, true);
+        infix(TokenType.OR, 4, false);
+        infix(TokenType.AND, 5, false);
+        infix(TokenType.BIT_OR, 6, true);
+        infix(TokenType.BIT_XOR, 7, false);
+        infix(TokenType.BIT_AND, 8, false);
+        infix(TokenType.EQUALS, 9, false);
+        infix(TokenType.NOT_EQUALS, 9, false);
+        infix(TokenType.GREATER, 10, false);
+        infix(TokenType.GREATER_EQUALS, 10, false);
+        infix(TokenType.LESSER, 10, false);
+        infix(TokenType.LESSER_EQUALS, 10, false);
+        infix(TokenType.PLUS, 11, false);
+        infix(TokenType.MINUS, 11, false);
+        infix(TokenType.MUL, 12, false);
+        infix(TokenType.DIV, 12, false);
+        infix(TokenType.MOD, 13, false);
+        infix(TokenType.EXP, 14, false);
     }
 
-    private Expr addition()
+    private static void infix(TokenType type, int power, boolean right)
     {
-        Expr left = multiplication();
-        while(match(TokenType.PLUS, TokenType.MINUS))
-        {
-            Token op = previous();
-            Expr right = multiplication();
-            left = new Expr.Binary(left, op, right);
-        }
-        return left;
+        precedence[type.ordinal()] = power;
+        rightAssociative[type.ordinal()] = right;
     }
 
-    private Expr multiplication()
+    private Expr binary(int minPrecedence)
     {
-        Expr left = modulo();
-        while(match(TokenType.MUL, TokenType.DIV))
+        Expr left = unary();
+        while(true)
         {
-            Token op = previous();
-            Expr right = modulo();
-            left = new Expr.Binary(left, op, right);
+            TokenType type = tokens.type(curr);
+            int power = precedence[type.ordinal()];
+            if(power == 0 || power < minPrecedence)
+            {
+                return left;
+            }
+            Token op = advance();
+            int rightPrecedence = rightAssociative[type.ordinal()] ? power : power + 1;
+            switch(type)
+            {
+                case ASSIGN:
+                    left = assign(left, op, binary(rightPrecedence));
+                    break;
+                case QUESTION:
+                    Expr thenBranch = expression();
+                    consume(TokenType.COLON, "Expect ':' after conditional expressio.");
+                    Expr elseBranch = binary(rightPrecedence);
+                    left = new Expr.Conditional(left, thenBranch, elseBranch);
+                    break;
+                case OR:
+                case AND:
+                    left = new Expr.Logical(left, op, binary(rightPrecedence));
+                    break;
+                default:
+                    left = new Expr.Binary(left, op, binary(rightPrecedence));
+            }
         }
-        return left;
     }
 
-    private Expr modulo()
+    private Expr assign(Expr target, Token equals, Expr value)
     {
-        Expr left = exponentiation();
-        while(match(TokenType.MOD))
+        if(target instanceof Expr.Variable)
         {
-            Token op = previous();
-            Expr right = exponentiation();
-            left = new Expr.Binary(left, op, right);
+            Token name = ((Expr.Variable)target).name;
+            return new Expr.Assign(name, value);
         }
-        return left;
-    }
-
-    private Expr exponentiation()
-    {
-        Expr left = unary();
-        while(match(TokenType.EXP))
+        else if(target instanceof Expr.Get)
         {
-            Token op = previous();
-            Expr right = unary();
-            left = new Expr.Binary(left, op, right);
+            Expr.Get get = (Expr.Get) target;
+            return new Expr.Set(get.name, get.object, value);
         }
-        return left;
+        error(equals, "Invalid assignment target.");
+        return target;
     }
 
     private Expr unary()
@@ -610,23 +669,24 @@ class Parser
 
     private ParseError error(Token token, String message)
     {
-        Lox.error(token, message);
+        context.error(token, message);
         return new ParseError();
     }
 
     private void sync()
     {
-        advance();
+        skip();
         while(!atEnd())
         {
-            if(previous().type == TokenType.SEMI_COLON)
+            if(tokens.type(curr-1) == TokenType.SEMI_COLON)
             {
                 return;
             }
-            switch(peek().type)
+            switch(tokens.type(curr))
             {
                 // Enums don't need to be qualified in switch cases apparently
                 case CLASS:
+                case STRUCT:
                 case DEFINE:
                 case LET:
                 case FOR:
@@ -640,7 +700,7 @@ class Parser
                 case RETURN:
                     return;
             }   
-            advance();
+            skip();
         }
     }
 
@@ -650,7 +710,7 @@ class Parser
         {
             if(check(type))
             {
-                advance();
+                skip();
                 return true;
             }
         }
@@ -663,21 +723,26 @@ class Parser
         {
             return false;
         }
-        return peek().type == expected;
+        return tokens.type(curr) == expected;
     }
 
-    private Token advance()
+    private void skip()
     {
         if(!atEnd())
         {
             curr++;
         }
+    }
+
+    private Token advance()
+    {
+        skip();
         return previous();
     }
 
     private boolean atEnd()
     {
-        return peek().type == TokenType.END;
+        return tokens.type(curr) == TokenType.END;
     }
     
     private Token peek()
@@ -0,0 +1,75 @@
+package lox;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/* Makes the globals a prelude script left behind safe to share between
+contexts. Everything reachable from them is frozen: the environments, the
+closures of their functions, the methods of their classes and their
+instances. Contexts only ever read frozen state, what they define or assign
+at the top level goes to globals of their own, see Environment.over. */
+final class Prelude
+{
+    private Prelude()
+    {
+    }
+
+    static void freeze(Environment globals)
+    {
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Object> pending = new ArrayDeque<>();
+        pending.push(globals);
+        while(!pending.isEmpty())
+        {
+            Object value = pending.pop();
+            if(!seen.add(value))
+            {
+                continue;
+            }
+            if(value instanceof Environment)
+            {
+                Environment environment = (Environment) value;
+                environment.freeze();
+                push(pending, environment.enclosing);
+                for(Object held : environment.values())
+                {
+                    push(pending, held);
+                }
+            }
+            else if(value instanceof LoxFunction)
+            {
+                push(pending, ((LoxFunction) value).closure());
+            }
+            else if(value instanceof LoxClass)
+            {
+                LoxClass klass = (LoxClass) value;
+                push(pending, klass.superclass);
+                for(LoxFunction method : klass.methods())
+                {
+                    push(pending, method);
+                }
+            }
+            else if(value instanceof LoxInstance)
+            {
+                LoxInstance instance = (LoxInstance) value;
+                instance.freeze();
+                push(pending, instance.klass());
+                for(Object field : instance.values())
+                {
+                    push(pending, field);
+                }
+            }
+        }
+    }
+
+    private static void push(Deque<Object> pending, Object value)
+    {
+        if(value != null)
+        {
+            pending.push(value);
+        }
+    }
+}
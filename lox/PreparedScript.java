@@ -0,0 +1,41 @@
+package lox;
+
+import java.util.List;
+import java.util.Map;
+
+/* A parsed and resolved program that runs any number of times, from any
+number of threads at once, without going through the front end again. The
+Resolver left its depths on the nodes, which are only read once the script
+is prepared. Each run gets globals of its own, starting with the natives,
+the prelude of the context's engine and the bindings of the caller. Made by LoxEngine.prepare. */
+public class PreparedScript
+{
+    private final List<Stmt> program;
+
+    PreparedScript(List<Stmt> program)
+    {
+        this.program = program;
+    }
+
+    /* Runs the script in the context with the bindings defined as globals.
+    Binding values are Lox values: null for nil, Booleans, Strings and
+    numbers, which are turned into Doubles like every Lox number. Returns
+    false if the run stopped on a runtime error, reported to the context. */
+    public boolean run(LoxContext context, Map<String, ?> bindings)
+    {
+        context.hadError = false;
+        context.hadRuntimeError = false;
+        Interpreter interpreter = context.newInterpreter();
+        for(Map.Entry<String, ?> binding : bindings.entrySet())
+        {
+            Object value = binding.getValue();
+            if(value instanceof Number && !(value instanceof Double))
+            {
+                value = ((Number) value).doubleValue();
+            }
+            interpreter.globals.define(Symbol.intern(binding.getKey()), value);
+        }
+        interpreter.interpret(program);
+        return !context.hadRuntimeError;
+    }
+}
@@ -7,15 +7,35 @@ import java.util.Stack;
 
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
 {
-    private final Interpreter interpreter;
-    private final Stack< Map<String, Boolean> > scopes = new Stack<>();
+    // Where errors are reported.
+    private final LoxContext context;
+    private final Stack< Map<Symbol, Boolean> > scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
     private LoopType currentLoopType = LoopType.NONE;
     private ClassType currentClass = ClassType.NONE;
+    Resolver(LoxContext context)
+    {
+        this.context = context;
+    }
 
-    Resolver(Interpreter interpreter)
+    private void error(Token token, String message)
     {
-        this.interpreter = interpreter;
+        context.error(token, message);
+    }
+
+    /* Copies the current state, so a lazy body resolves later exactly as
+    it would have here. */
+    private Resolver snapshot()
+    {
+        Resolver copy = new Resolver(context);
+        for(Map<Symbol, Boolean> scope : scopes)
+        {
+            copy.scopes.push(new HashMap<>(scope));
+        }
+        copy.currentFunction = currentFunction;
+        copy.currentLoopType = currentLoopType;
+        copy.currentClass = currentClass;
+        return copy;
     }
 
     @Override
@@ -33,14 +53,18 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
         if(stmt.superclass != null)
         {
             beginScope();
-            scopes.peek().put("super", true);
+            scopes.peek().put(Symbol.SUPER, true);
         }
         beginScope();
-        scopes.peek().put("self", true);  
+        scopes.peek().put(Symbol.SELF, true);  
         for (Stmt.Function method : stmt.methods) 
         {       
             FunctionType declaration;
-            if(method.name.lexeme.equals("init"))
+            if(stmt.fields != null && method.name.symbol == Symbol.INIT)
+            {
+                error(method.name, "Cannot declare an initializer in a struct.");
+            }
+            if(method.name.symbol == Symbol.INIT)
             {
                 declaration = FunctionType.INITIALIZER; 
             }
@@ -64,13 +88,13 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
     {
         if(currentClass == ClassType.NONE)
         {
-            Lox.error(expr.keyword, "Cannot use 'super' outside of class.");
+            error(expr.keyword, "Cannot use 'super' outside of class.");
         }
         else if(currentClass != ClassType.SUBCLASS)
         {
-            Lox.error(expr.keyword, "Cannot use 'super' in a class with no superclass.");
+            error(expr.keyword, "Cannot use 'super' in a class with no superclass.");
         }
-        resolveLocal(expr, expr.keyword);
+        expr.depth = resolveLocal(expr.keyword);
         return null;
     }
 
@@ -79,10 +103,10 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
     {
         if(currentClass == ClassType.NONE)
         {
-            Lox.error(expr.keyword, "Cannot use 'self' outside of a class.");
+            error(expr.keyword, "Cannot use 'self' outside of a class.");
             return null;
         }
-        resolveLocal(expr, expr.keyword);        
+        expr.depth = resolveLocal(expr.keyword);
         return null;                             
     }    
 
@@ -91,7 +115,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
     {
         if(currentLoopType == LoopType.NONE)
         {
-            Lox.error(stmt.keyword, "Break can only used be inside switch cases & loops."); 
+            error(stmt.keyword, "Break can only used be inside switch cases & loops."); 
         }
         return null;
     }
@@ -101,7 +125,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
     {
         if(currentLoopType == LoopType.NONE)
         {
-            Lox.error(stmt.keyword, "Continue can only used be inside loops."); 
+            error(stmt.keyword, "Continue can only used be inside loops."); 
         }
         return null;
     }
@@ -117,7 +141,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
 
     private void beginScope()
     {
-        scopes.push(new HashMap<String, Boolean>());
+        scopes.push(new HashMap<Symbol, Boolean>());
     }
 
     private void endScope()
@@ -133,7 +157,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
         }
     }
 
-    private void resolve(Stmt stmt)
+    void resolve(Stmt stmt)
     {
         stmt.accept(this);
     }
@@ -156,12 +180,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
         {
             return;
         }
-        Map<String, Boolean> scope = scopes.peek();
-        if(scope.containsKey(name.lexeme))
+        Map<Symbol, Boolean> scope = scopes.peek();
+        if(scope.containsKey(name.symbol))
         {
-            Lox.error(name, "Variable with this name already declared in scope.");
+            error(name, "Variable with this name already declared in scope.");
         }
-        scope.put(name.lexeme, false);
+        scope.put(name.symbol, false);
     }
 
     private void define(Token name)
@@ -170,7 +194,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
         {
             return;
         }
-        scopes.peek().put(name.lexeme, true);
+        scopes.peek().put(name.symbol, true);
     }
     
     private void resolve(Expr expr)
@@ -181,31 +205,32 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
     @Override
     public Void visitVarExpr(Expr.Variable expr)
     {
-        if(!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE)
+        if(!scopes.isEmpty() && scopes.peek().get(expr.name.symbol) == Boolean.FALSE)
         {
-            Lox.error(expr.name, "Cannot read local variable in its own initializer.");
+            error(expr.name, "Cannot read local variable in its own initializer.");
         }
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveLocal(expr.name);
         return null;
     }
 
-    private void resolveLocal(Expr expr, Token name)
+    // Depth of the scope declaring name, -1 if it is a global.
+    private int resolveLocal(Token name)
     {
         for(int i=scopes.size()-1;i>=0;i--)
         {
-            if(scopes.get(i).containsKey(name.lexeme))
+            if(scopes.get(i).containsKey(name.symbol))
             {
-                interpreter.resolve(expr, scopes.size()-1-i);
-                return;
+                return scopes.size()-1-i;
             }
         }
+        return -1;
     }
 
     @Override
     public Void visitAssignExpr(Expr.Assign expr)
     {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveLocal(expr.name);
         return null;
     }
 
@@ -228,7 +253,14 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
             declare(param);
             define(param);
         }
-        resolve(function.body);
+        if(function.lazy != null)
+        {
+            function.lazy.setResolver(snapshot());
+        }
+        else
+        {
+            resolve(function.body);
+        }
         endScope();
         currentFunction = enclosingFunction;
     }
@@ -264,13 +296,13 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
     {
         if(currentFunction == FunctionType.NONE)
         {
-            Lox.error(stmt.keyword, "Cannot return form top-level scope."); 
+            error(stmt.keyword, "Cannot return form top-level scope."); 
         }
         if(stmt.expr != null)
         {
             if(currentFunction == FunctionType.INITIALIZER)
             {
-                Lox.error(stmt.keyword, "Cannot return a value from an initializer.");
+                error(stmt.keyword, "Cannot return a value from an initializer.");
             }
             resolve(stmt.expr);
         }
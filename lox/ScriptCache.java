@@ -0,0 +1,198 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/* Directory of resolved programs, one file per source named after the
+SHA-256 of the interpreter version and the source text. An entry is the
+magic number, the format and interpreter versions, the AstArena of the
+program, and a CRC32 of all of that. Entries are written to a temporary
+file and moved into place, so a reader never sees half an entry, and an
+entry that fails any check is simply built again. */
+class ScriptCache
+{
+    private static final int MAGIC = 0x4c4f5843; // "LOXC"
+    private static final int FORMAT = 1;
+
+    private final Path dir;
+
+    ScriptCache(Path dir)
+    {
+        this.dir = dir;
+    }
+
+    // The lox.cache.dir property, or ~/.cache/jlox.
+    static Path defaultDir()
+    {
+        String dir = System.getProperty("lox.cache.dir");
+        if(dir != null)
+        {
+            return Paths.get(dir);
+        }
+        return Paths.get(System.getProperty("user.home"), ".cache", "jlox");
+    }
+
+    /* The resolved program of source, or null when there is no usable
+    entry. */
+    List<Stmt> load(CharSequence source)
+    {
+        Path entry = entry(source);
+        byte[] bytes;
+        try
+        {
+            bytes = Files.readAllBytes(entry);
+        }
+        catch(IOException e)
+        {
+            return null;
+        }
+        try
+        {
+            if(bytes.length < 8)
+            {
+                throw new IOException("Truncated entry.");
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length - 8);
+            if(crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - 8, 8).getLong())
+            {
+                throw new IOException("Checksum mismatch.");
+            }
+            ByteBuffer in = ByteBuffer.wrap(bytes, 0, bytes.length - 8);
+            if(in.getInt() != MAGIC || in.getInt() != FORMAT || !Arrays.equals(version(), readVersion(in)))
+            {
+                throw new IOException("Stale entry.");
+            }
+            AstArena arena = AstArena.read(in);
+            if(in.remaining() != 0)
+            {
+                throw new IOException("Trailing data.");
+            }
+            return arena.decode();
+        }
+        catch(IOException | RuntimeException e)
+        {
+            // Corrupt or from another version, it is rebuilt after this run.
+            try
+            {
+                Files.deleteIfExists(entry);
+            }
+            catch(IOException ignored)
+            {
+            }
+            return null;
+        }
+    }
+
+    /* Stores a resolved program. Failing to is not an error, the next run
+    just builds it again. */
+    void store(CharSequence source, List<Stmt> program, LoxContext context)
+    {
+        Path temp = null;
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeInt(version().length);
+            out.write(version());
+            AstArena.encode(program, context).write(out);
+            out.flush();
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeLong(crc.getValue());
+            out.flush();
+
+            Files.createDirectories(dir);
+            Path entry = entry(source);
+            temp = Files.createTempFile(dir, entry.getFileName().toString(), ".tmp");
+            Files.write(temp, bytes.toByteArray());
+            try
+            {
+                Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch(AtomicMoveNotSupportedException e)
+            {
+                Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch(IOException e)
+        {
+            if(temp != null)
+            {
+                try
+                {
+                    Files.deleteIfExists(temp);
+                }
+                catch(IOException ignored)
+                {
+                }
+            }
+        }
+    }
+
+    private static byte[] version()
+    {
+        return Lox.VERSION.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readVersion(ByteBuffer in) throws IOException
+    {
+        int length = in.getInt();
+        if(length < 0 || length > in.remaining())
+        {
+            throw new IOException("Bad version.");
+        }
+        byte[] version = new byte[length];
+        in.get(version);
+        return version;
+    }
+
+    private Path entry(CharSequence source)
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch(NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+        digest.update(version());
+        digest.update((byte) 0);
+        byte[] buffer = new byte[8192];
+        int length = source.length();
+        for(int i=0;i<length;)
+        {
+            int n = 0;
+            for(;n<buffer.length && i<length;i++)
+            {
+                char c = source.charAt(i);
+                buffer[n++] = (byte) (c >> 8);
+                buffer[n++] = (byte) c;
+            }
+            digest.update(buffer, 0, n);
+        }
+        StringBuilder name = new StringBuilder();
+        for(byte b : digest.digest())
+        {
+            name.append(String.format("%02x", b));
+        }
+        return dir.resolve(name.append(".lxc").toString());
+    }
+}
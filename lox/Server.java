@@ -0,0 +1,170 @@
+package lox;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/* Keeps one JVM running scripts for lox.Client, so that they start without
+JVM startup and with the interpreter already compiled. Each connection is
+served on a thread of its own, through Lox.runRequest as a fresh process
+would run it, in a LoxContext printing to the client. A script still running
+when its client goes away is interrupted, which stops it at its next loop
+iteration or call.
+
+A request is the number of arguments and then the arguments, as written by
+DataOutputStream.writeInt and writeUTF, with paths already absolute. The
+response is a series of frames, each a tag byte: OUT or ERR followed by a
+length and that many bytes of output, and finally EXIT followed by the exit
+code. */
+class Server
+{
+    static final byte EXIT = 0, OUT = 1, ERR = 2;
+    // More arguments than any request of the command line can have.
+    private static final int MAX_ARGS = 64;
+
+    static void serve(Path socket) throws IOException
+    {
+        Files.deleteIfExists(socket);
+        try(ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX))
+        {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            while(true)
+            {
+                SocketChannel client = server.accept();
+                Thread connection = new Thread(() -> serve(client), "lox-request");
+                connection.setDaemon(true);
+                connection.start();
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(socket);
+        }
+    }
+
+    /* Nothing a request does, not even a malformed request or an Error
+    out of its script, gets past its own connection. */
+    private static void serve(SocketChannel client)
+    {
+        try(client)
+        {
+            handle(client);
+        }
+        catch(IOException | RuntimeException | Error e)
+        {
+            // The client went away or sent garbage, the script is stopped.
+        }
+    }
+
+    private static void handle(SocketChannel client) throws IOException
+    {
+        DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+        int count = in.readInt();
+        if(count < 0 || count > MAX_ARGS)
+        {
+            throw new IOException("Bad request.");
+        }
+        String[] args = new String[count];
+        for(int i=0;i<args.length;i++)
+        {
+            args[i] = in.readUTF();
+        }
+        watchHangUp(client, Thread.currentThread());
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)));
+        PrintStream clientOut = new PrintStream(new BufferedOutputStream(new Frames(out, OUT)), true);
+        PrintStream clientErr = new PrintStream(new BufferedOutputStream(new Frames(out, ERR)), true);
+        int code;
+        try
+        {
+            code = Lox.runRequest(args, clientOut, clientErr);
+        }
+        catch(IOException e)
+        {
+            clientErr.println("Cannot read " + e.getMessage());
+            code = 66;
+        }
+        catch(RuntimeException | Error e)
+        {
+            clientErr.println("Internal error: " + e);
+            code = 70;
+        }
+        finally
+        {
+            clientOut.flush();
+            clientErr.flush();
+        }
+        synchronized(out)
+        {
+            out.writeByte(EXIT);
+            out.writeInt(code);
+            out.flush();
+        }
+    }
+
+    /* The client sends nothing after its request, so the next read only
+    returns once it hangs up, and then the request is interrupted. This
+    reads the channel itself, as its streams lock out each other. */
+    private static void watchHangUp(SocketChannel client, Thread request)
+    {
+        Thread watcher = new Thread(() -> {
+            try
+            {
+                client.read(ByteBuffer.allocate(1));
+            }
+            catch(IOException e)
+            {
+                // Closed, one way or the other.
+            }
+            request.interrupt();
+        }, "lox-hangup");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    // Output sent to the client as frames with the given tag.
+    private static class Frames extends OutputStream
+    {
+        private final DataOutputStream out;
+        private final byte tag;
+
+        Frames(DataOutputStream out, byte tag)
+        {
+            this.out = out;
+            this.tag = tag;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            if(len == 0)
+            {
+                return;
+            }
+            synchronized(out)
+            {
+                out.writeByte(tag);
+                out.writeInt(len);
+                out.write(b, off, len);
+                out.flush();
+            }
+        }
+    }
+}
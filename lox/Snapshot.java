@@ -0,0 +1,54 @@
+package lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/* Global environment of a finished run, saved so that later runs can start
+from it instead of running the same prelude again. Everything reachable from
+the globals goes along: classes, functions with their closures and bodies,
+and instances, and the bodies keep the depths the Resolver gave them. Java
+serialization keeps identity and sharing within the graph, and symbols are
+interned again as they are read. */
+class Snapshot
+{
+    static void save(Path file, Interpreter interpreter) throws IOException
+    {
+        // A temporary file of its own, so that runs saving at once never share one.
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try
+        {
+            try(ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(temp))))
+            {
+                out.writeUTF(Lox.VERSION);
+                out.writeObject(interpreter.globals);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally
+        {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    static Interpreter load(Path file, LoxContext context) throws IOException
+    {
+        try(ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file))))
+        {
+            if(!in.readUTF().equals(Lox.VERSION))
+            {
+                throw new IOException("Snapshot is from another version.");
+            }
+            return new Interpreter(context, (Environment) in.readObject());
+        }
+        catch(ClassNotFoundException | ClassCastException e)
+        {
+            throw new IOException("Not a snapshot.", e);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/* Source text of a file, read whole onto the heap. Plain ASCII files (the
+usual case for generated scripts) are kept as their raw bytes, one byte per
+char, instead of being decoded into a String of two-byte chars, so a large
+source takes half the memory and is never copied again. Anything else is
+decoded as it is read, straight into the chars it is kept in, so its bytes
+are never held whole next to them. The file is scanned once beforehand to
+tell which it is. */
+class SourceFile implements CharSequence
+{
+    private final byte[] bytes;
+    private final int start, end;
+
+    private SourceFile(byte[] bytes, int start, int end)
+    {
+        this.bytes = bytes;
+        this.start = start;
+        this.end = end;
+    }
+
+    static CharSequence open(Path path) throws IOException
+    {
+        if(isAscii(path))
+        {
+            byte[] bytes = Files.readAllBytes(path);
+            return new SourceFile(bytes, 0, bytes.length);
+        }
+        return decode(path);
+    }
+
+    private static boolean isAscii(Path path) throws IOException
+    {
+        try(InputStream in = Files.newInputStream(path))
+        {
+            byte[] buffer = new byte[8192];
+            for(int n;(n = in.read(buffer)) != -1;)
+            {
+                for(int i=0;i<n;i++)
+                {
+                    if(buffer[i] < 0)
+                    {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /* Decodes with the default charset. A file never decodes to more chars
+    than it has bytes in the charsets Lox sources come in, so the array is
+    sized by the file and only grows for anything else. */
+    private static CharSequence decode(Path path) throws IOException
+    {
+        char[] chars = new char[(int) Math.min(Files.size(path), Integer.MAX_VALUE - 8)];
+        int length = 0;
+        try(Reader in = new InputStreamReader(Files.newInputStream(path), Charset.defaultCharset()))
+        {
+            while(true)
+            {
+                if(length == chars.length)
+                {
+                    int c = in.read();
+                    if(c == -1)
+                    {
+                        break;
+                    }
+                    chars = Arrays.copyOf(chars, 2 * length + 1);
+                    chars[length++] = (char) c;
+                }
+                int n = in.read(chars, length, chars.length - length);
+                if(n == -1)
+                {
+                    break;
+                }
+                length += n;
+            }
+        }
+        return CharBuffer.wrap(chars, 0, length);
+    }
+
+    @Override
+    public int length()
+    {
+        return end - start;
+    }
+
+    @Override
+    public char charAt(int index)
+    {
+        return (char) bytes[start + index];
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to)
+    {
+        return new SourceFile(bytes, start + from, start + to);
+    }
+
+    @Override
+    public String toString()
+    {
+        return new String(bytes, start, end - start, StandardCharsets.US_ASCII);
+    }
+}
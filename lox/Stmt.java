@@ -1,9 +1,12 @@
 package lox;
 
+import java.io.Serializable;
 import java.util.List;
 import java.util.ArrayList;
 
-abstract class Stmt
+// The nodes are saved in snapshots, which Lox.VERSION guards instead of UIDs.
+@SuppressWarnings("serial")
+abstract class Stmt implements Serializable
 {
     abstract <T> T accept(Visitor<T> vis);
 
@@ -111,11 +114,13 @@ abstract class Stmt
 
     static class While extends Stmt
     {
+        final Token keyword;
         final Expr cond;
         final Stmt body;
 
-        While(Expr cond, Stmt body)
+        While(Token keyword, Expr cond, Stmt body)
         {
+            this.keyword = keyword;
             this.cond = cond;
             this.body = body;
         }
@@ -128,11 +133,13 @@ abstract class Stmt
 
     static class DoWhile extends Stmt
     {
+        final Token keyword;
         final Expr cond;
         final Stmt body;
 
-        DoWhile(Expr cond, Stmt body)
+        DoWhile(Token keyword, Expr cond, Stmt body)
         {
+            this.keyword = keyword;
             this.cond = cond;
             this.body = body;
         }
@@ -145,11 +152,13 @@ abstract class Stmt
 
     static class For extends Stmt
     {
+        final Token keyword;
         final Expr init, cond, incr;
         final Stmt body;
 
-        For(Expr init, Expr cond, Expr incr, Stmt body)
+        For(Token keyword, Expr init, Expr cond, Expr incr, Stmt body)
         {
+            this.keyword = keyword;
             this.init = init;
             this.cond = cond;
             this.incr = incr;
@@ -167,6 +176,8 @@ abstract class Stmt
         Token name;
         List<Token> params;
         List<Stmt> body;
+        // Set instead of body when the body was only pre-parsed.
+        LazyBody lazy;
 
         Function(Token name, List<Token> params, List<Stmt> body)
         {
@@ -252,12 +263,15 @@ abstract class Stmt
         Token name;
         List<Stmt.Function> methods;
         Expr.Variable superclass;
+        // Declared fields of a struct, null for an ordinary class.
+        List<Token> fields;
 
-        Class(Token name, List<Stmt.Function> methods, Expr.Variable superclass)
+        Class(Token name, List<Stmt.Function> methods, Expr.Variable superclass, List<Token> fields)
         {
             this.name = name;
             this.methods = methods;
             this.superclass = superclass;
+            this.fields = fields;
         }
 
         <T> T accept(Visitor<T> vis)
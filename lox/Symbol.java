@@ -0,0 +1,99 @@
+package lox;
+
+import java.io.Serializable;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/* Canonical identifier. Every name is interned once by the Tokenizer, after
+which environments, scopes, classes and instances key on the Symbol itself,
+so lookups hash by the precomputed hash and compare by identity instead of
+going through String.hashCode/equals.
+
+The table only holds symbols weakly. A long-running server or engine sees
+the names of every script it ever ran, and a symbol no tree, environment or
+class refers to any more is dropped, to be made again if a name comes back.
+Nothing can tell the two apart, as nothing kept the old one. */
+final class Symbol implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private static final Map<String, Entry> table = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<Symbol> collected = new ReferenceQueue<>();
+
+    static final Symbol SELF = intern("self");
+    static final Symbol SUPER = intern("super");
+    static final Symbol INIT = intern("init");
+
+    final String name;
+    private final int hash;
+
+    // A table entry, which knows its name to take itself out once collected.
+    private static final class Entry extends WeakReference<Symbol>
+    {
+        final String name;
+
+        Entry(Symbol symbol)
+        {
+            super(symbol, collected);
+            this.name = symbol.name;
+        }
+    }
+
+    private Symbol(String name)
+    {
+        this.name = name;
+        this.hash = name.hashCode();
+    }
+
+    static Symbol intern(String name)
+    {
+        expunge();
+        Entry entry = table.get(name);
+        Symbol symbol = entry == null ? null : entry.get();
+        if(symbol != null)
+        {
+            return symbol;
+        }
+        Symbol[] interned = new Symbol[1];
+        table.compute(name, (key, old) -> {
+            interned[0] = old == null ? null : old.get();
+            if(interned[0] != null)
+            {
+                return old;
+            }
+            interned[0] = new Symbol(key);
+            return new Entry(interned[0]);
+        });
+        return interned[0];
+    }
+
+    // Takes out the entries of collected symbols, unless their name was interned again.
+    private static void expunge()
+    {
+        Object entry;
+        while((entry = collected.poll()) != null)
+        {
+            table.remove(((Entry) entry).name, entry);
+        }
+    }
+
+    // Symbols read from a snapshot are interned like freshly lexed ones.
+    private Object readResolve()
+    {
+        return intern(name);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return hash;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+}
@@ -1,17 +1,31 @@
 package lox;
 
-class Token
+import java.io.Serializable;
+
+class Token implements Serializable
 {
+    private static final long serialVersionUID = 1L;
+
     final TokenType type;
-    final int line, col;
+    // Moved when IncrementalFrontEnd keeps a declaration below an edit that added or removed lines.
+    int line;
+    final int col;
     final String lexeme;
     final Object literal;
+    // Interned name of identifiers (and of 'self'/'super'), null otherwise.
+    final Symbol symbol;
 
     Token(TokenType type, String lexeme, Object literal, int line, int col)
+    {
+        this(type, lexeme, literal, null, line, col);
+    }
+
+    Token(TokenType type, String lexeme, Object literal, Symbol symbol, int line, int col)
     {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
+        this.symbol = symbol;
         this.line = line;
         this.col = col;
     }
@@ -21,4 +35,3 @@ class Token
         return "<" + type + "," + lexeme + "," + literal + "," + line + "," + col + ">";
     }
 }
-
@@ -0,0 +1,185 @@
+package lox;
+
+import java.util.Arrays;
+import java.util.List;
+
+/* Compact store for the token stream. Each token is a handful of ints
+in parallel arrays pointing back into the source, Token objects (and their
+lexemes and literals) are only built when the parser actually asks for one. */
+class TokenBuffer
+{
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final CharSequence source;
+    // Feeds the buffer on demand, null once the source is fully scanned.
+    private Tokenizer tokenizer;
+    private byte[] types = new byte[64];
+    private int[] starts = new int[64];
+    private int[] lengths = new int[64];
+    private int[] lines = new int[64];
+    private int[] cols = new int[64];
+    /* Symbol of identifiers, 'self' and 'super', value of numbers, and null
+    for everything else. */
+    private Object[] values = new Object[64];
+    // Tokens are indexed from the start of the source, the arrays start at base.
+    private int base, size;
+    // Lexemes of fixed spelling tokens, shared by every token of that type.
+    private final String[] spellings = new String[TYPES.length];
+    // Collects every Token handed out while set, see IncrementalFrontEnd.
+    private List<Token> made;
+
+    TokenBuffer(CharSequence source, Tokenizer tokenizer)
+    {
+        this.source = source;
+        this.tokenizer = tokenizer;
+    }
+
+    void add(TokenType type, int start, int length, int line, int col, Object value)
+    {
+        int at = size - base;
+        if(at == types.length)
+        {
+            int capacity = at * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            cols = Arrays.copyOf(cols, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        types[at] = (byte) type.ordinal();
+        starts[at] = start;
+        lengths[at] = length;
+        lines[at] = line;
+        cols[at] = col;
+        values[at] = value;
+        size++;
+    }
+
+    /* Drops the tokens before index end, which must not be asked for again.
+    Keeps the buffer small when the program is consumed as it is parsed. */
+    void release(int end)
+    {
+        int kept = size - end;
+        System.arraycopy(types, end - base, types, 0, kept);
+        System.arraycopy(starts, end - base, starts, 0, kept);
+        System.arraycopy(lengths, end - base, lengths, 0, kept);
+        System.arraycopy(lines, end - base, lines, 0, kept);
+        System.arraycopy(cols, end - base, cols, 0, kept);
+        System.arraycopy(values, end - base, values, 0, kept);
+        Arrays.fill(values, kept, size - base, null);
+        base = end;
+    }
+
+    void copyTo(TokenBuffer target, int lineShift)
+    {
+        for(int i=0;i<size-base;i++)
+        {
+            target.add(TYPES[types[i]], starts[i], lengths[i], lines[i] + lineShift, cols[i], values[i]);
+        }
+    }
+
+    /* Makes sure token i has been scanned, the END token is always last so
+    this only fails for indexes past it. */
+    private void fill(int i)
+    {
+        while(i >= size && tokenizer != null)
+        {
+            if(!tokenizer.scanNext())
+            {
+                tokenizer = null;
+            }
+        }
+    }
+
+    int size()
+    {
+        fill(Integer.MAX_VALUE);
+        return size;
+    }
+
+    TokenType type(int i)
+    {
+        fill(i);
+        return TYPES[types[i-base]];
+    }
+
+    int start(int i)
+    {
+        fill(i);
+        return starts[i-base];
+    }
+
+    int end(int i)
+    {
+        fill(i);
+        return starts[i-base] + lengths[i-base];
+    }
+
+    int line(int i)
+    {
+        fill(i);
+        return lines[i-base];
+    }
+
+    int col(int i)
+    {
+        fill(i);
+        return cols[i-base];
+    }
+
+    void record(List<Token> made)
+    {
+        this.made = made;
+    }
+
+    Token get(int i)
+    {
+        Token token = make(i);
+        if(made != null)
+        {
+            made.add(token);
+        }
+        return token;
+    }
+
+    private Token make(int i)
+    {
+        TokenType type = type(i);
+        int at = i - base;
+        switch(type)
+        {
+            case END:
+                return new Token(type, null, "EOF", lines[at], cols[at]);
+            case ID:
+                Symbol symbol = (Symbol) values[at];
+                return new Token(type, symbol.name, symbol.name, symbol, lines[at], cols[at]);
+            case SELF:
+            case SUPER:
+                Symbol keyword = (Symbol) values[at];
+                return new Token(type, keyword.name, null, keyword, lines[at], cols[at]);
+            case STRING:
+                return new Token(type, lexeme(at), slice(starts[at]+1, starts[at]+lengths[at]-1), lines[at], cols[at]);
+            case NUMBER:
+                return new Token(type, lexeme(at), values[at], lines[at], cols[at]);
+        }
+        String spelling = spellings[type.ordinal()];
+        if(spelling == null)
+        {
+            spelling = lexeme(at);
+            spellings[type.ordinal()] = spelling;
+        }
+        return new Token(type, spelling, null, lines[at], cols[at]);
+    }
+
+    // Takes an index into the arrays rather than a token index.
+    private String lexeme(int at)
+    {
+        return slice(starts[at], starts[at]+lengths[at]);
+    }
+
+    private String slice(int from, int to)
+    {
+        return source.subSequence(from, to).toString();
+    }
+}
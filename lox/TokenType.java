@@ -24,6 +24,7 @@ enum TokenType
     IF, ELSE, LET, DEFINE, FOR, WHILE, DO, RETURN, 
     TRUE, FALSE, NIL, BREAK, CONTINUE, PRINT, CLASS,
     SUPER, SELF, QUESTION, COLON, SWITCH, CASE, DEFAULT,
+    STRUCT,
 
     // Others
     END
@@ -1,69 +1,246 @@
 package lox;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 class Tokenizer
 {
-    private final String source;
-    private final List<Token> tokens;
+    // Sources at least this long are lexed in parallel, in chunks of about PARALLEL_CHUNK chars.
+    static final int PARALLEL_THRESHOLD = 1 << 22;
+    private static final int PARALLEL_CHUNK = 1 << 20;
+
+    private final CharSequence source;
+    private final TokenBuffer tokens;
     private int line, col, begin, curr;
-    private static final Map<String, TokenType> keywords;
+    // A chunk stops starting new tokens at limit, the whole source is one chunk.
+    private final int limit;
+    // Number of tokens added so far, and whether END is one of them.
+    private int scanned;
+    private boolean endReached;
+    // Errors of a chunk lexed off the main thread, reported once it is stitched in.
+    private final List<LexError> errors;
+    // Where errors are reported when they are not collected.
+    private final LoxContext context;
+    /* Character classes of the ASCII range, looked up by table instead of
+    going through the Unicode-aware Character methods for every char. */
+    private static final byte OTHER = 0, DIGIT = 1, ALPHA = 2;
+    private static final byte[] charClass = new byte[128];
+    private static final double[] powersOfTen = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+    };
+    // Direct-mapped cache of recently seen identifiers, probed by source range.
+    private final Symbol[] symbols = new Symbol[256];
 
     static
     {
-        keywords = new HashMap<>();  
-        keywords.put("not", TokenType.NOT);                      
-        keywords.put("and", TokenType.AND);
-        keywords.put("or", TokenType.OR);      
-        keywords.put("if", TokenType.IF);      
-        keywords.put("else", TokenType.ELSE);                                                          
-        keywords.put("true", TokenType.TRUE);                                           
-        keywords.put("false", TokenType.FALSE);
-        keywords.put("let", TokenType.LET);                                            
-        keywords.put("for", TokenType.FOR);                       
-        keywords.put("do", TokenType.DO);
-        keywords.put("while", TokenType.WHILE);
-        keywords.put("nil", TokenType.NIL);                       
-        keywords.put("define", TokenType.DEFINE);                       
-        keywords.put("break", TokenType.BREAK);                       
-        keywords.put("continue", TokenType.CONTINUE);                       
-        keywords.put("print", TokenType.PRINT);                     
-        keywords.put("return", TokenType.RETURN);
-        keywords.put("class", TokenType.CLASS);                    
-        keywords.put("super", TokenType.SUPER);                    
-        keywords.put("self", TokenType.SELF);                      
-        keywords.put("switch", TokenType.SWITCH);                      
-        keywords.put("case", TokenType.CASE);                      
-        keywords.put("default", TokenType.DEFAULT);                      
+        for(char c='0';c<='9';c++)
+        {
+            charClass[c] = DIGIT;
+        }
+        for(char c='a';c<='z';c++)
+        {
+            charClass[c] = ALPHA;
+            charClass[Character.toUpperCase(c)] = ALPHA;
+        }
+        charClass['_'] = ALPHA;
     }
     
-    Tokenizer(String source)
+    Tokenizer(CharSequence source, LoxContext context)
     {
         this.source = source;
-        this.tokens = new ArrayList<Token>();
+        this.tokens = new TokenBuffer(source, this);
         this.begin = this.curr = this.col = 0;
         this.line = 1;
+        this.limit = source.length();
+        this.errors = null;
+        this.context = context;
+    }
+
+    /* Lexes the rest of source from start, picking up the line and column
+    the lexer had reached there. */
+    Tokenizer(CharSequence source, int start, int line, int col, LoxContext context)
+    {
+        this(source, start, source.length(), line, col, null, context);
+    }
+
+    private Tokenizer(CharSequence source, int start, int limit, int line, int col, List<LexError> errors, LoxContext context)
+    {
+        this.source = source;
+        this.tokens = new TokenBuffer(source, this);
+        this.begin = this.curr = start;
+        this.line = line;
+        this.col = col;
+        this.limit = limit;
+        this.errors = errors;
+        this.context = context;
+    }
+
+    private static class LexError
+    {
+        final int line, col;
+        final String message;
+
+        LexError(int line, int col, String message)
+        {
+            this.line = line;
+            this.col = col;
+            this.message = message;
+        }
+    }
+
+    /* Lexes a large source on several threads. The source is cut into chunks
+    right after a newline and each chunk is lexed speculatively, as if it
+    started a fresh line outside of any comment or string. The chunks are
+    then stitched in order, their lines shifted by the line count of
+    everything before them (a prefix sum). When the previous chunk did not
+    stop exactly at the cut with a fresh line, because a comment or string
+    ran over it, the chunk is lexed again from where the previous one really
+    stopped, so the result is always the same as scanTokens(). */
+    static TokenBuffer scanParallel(CharSequence source, LoxContext context)
+    {
+        return scanParallel(source, PARALLEL_CHUNK, context);
     }
 
-    List<Token> getTokens()
+    static TokenBuffer scanParallel(CharSequence source, int chunkSize, LoxContext context)
+    {
+        List<Integer> cuts = new ArrayList<>();
+        int length = source.length();
+        int cut = 0;
+        cuts.add(cut);
+        while(cut + chunkSize < length)
+        {
+            cut += chunkSize;
+            while(cut < length && source.charAt(cut-1) != '\n')
+            {
+                cut++;
+            }
+            cuts.add(cut);
+        }
+        if(cut < length)
+        {
+            cuts.add(length);
+        }
+
+        List<Callable<Tokenizer>> tasks = new ArrayList<>();
+        for(int i=0;i+1<cuts.size();i++)
+        {
+            int start = cuts.get(i), limit = cuts.get(i+1);
+            tasks.add(() -> {
+                Tokenizer chunk = new Tokenizer(source, start, limit, 1, 0, new ArrayList<>(), null);
+                chunk.scanChunk();
+                return chunk;
+            });
+        }
+        List<Future<Tokenizer>> chunks = ForkJoinPool.commonPool().invokeAll(tasks);
+
+        TokenBuffer tokens = new TokenBuffer(source, null);
+        List<LexError> errors = new ArrayList<>();
+        int pos = 0, line = 1, col = 0;
+        for(int i=0;i<chunks.size();i++)
+        {
+            int start = cuts.get(i), limit = cuts.get(i+1);
+            if(pos >= limit)
+            {
+                // Swallowed whole by a comment of an earlier chunk.
+                continue;
+            }
+            Tokenizer chunk;
+            int shift;
+            if(pos == start && col == 0)
+            {
+                chunk = join(chunks.get(i));
+                shift = line - 1;
+            }
+            else
+            {
+                chunk = new Tokenizer(source, pos, limit, line, col, new ArrayList<>(), null);
+                chunk.scanChunk();
+                shift = 0;
+            }
+            chunk.tokens.copyTo(tokens, shift);
+            for(LexError error : chunk.errors)
+            {
+                errors.add(new LexError(error.line + shift, error.col, error.message));
+            }
+            pos = chunk.curr;
+            line = chunk.line + shift;
+            col = chunk.col;
+        }
+        tokens.add(TokenType.END, pos, 0, line, col+1, null);
+        for(LexError error : errors)
+        {
+            context.error(error.line, error.col, error.message);
+        }
+        return tokens;
+    }
+
+    private static Tokenizer join(Future<Tokenizer> chunk)
+    {
+        try
+        {
+            return chunk.get();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        catch(ExecutionException e)
+        {
+            if(e.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private void scanChunk()
+    {
+        while(!atEnd() && curr < limit)
+        {
+            begin = curr;
+            scanToken();
+        }
+    }
+
+    TokenBuffer getTokens()
     {
         return tokens;
     }
 
     public void scanTokens()
     {
-        while(!atEnd())
+        while(scanNext());
+    }
+
+    /* Scans until at least one more token is in the buffer, the buffer calls
+    this as the parser asks for tokens. Returns false once END is in. */
+    boolean scanNext()
+    {
+        if(endReached)
+        {
+            return false;
+        }
+        int before = scanned;
+        while(scanned == before && !atEnd())
         {
             begin = curr;
-            nextToken();
+            scanToken();
+        }
+        if(scanned == before)
+        {
+            tokens.add(TokenType.END, curr, 0, line, col+1, null);
+            endReached = true;
         }
-        tokens.add(new Token(TokenType.END, null, "EOF", line, col+1));
+        return true;
     }
 
-    private void nextToken()
+    private void scanToken()
     {
         char c = consume();
         switch(c)
@@ -140,7 +317,7 @@ class Tokenizer
                 }
                 else
                 {
-                    // Lox.error(line, col, "Unexpected char");
+                    // error("Unexpected char");
                     addToken(TokenType.COLON);
                 }
                 break;
@@ -151,7 +328,7 @@ class Tokenizer
                 }
                 else
                 {
-                    Lox.error(line, col,"Unexpected char");
+                    error("Unexpected char");
                 }
                 break;
             case '>':
@@ -192,17 +369,17 @@ class Tokenizer
                 col = 0;
                 break;
             default:
-                if(Character.isDigit(c))
+                if(isDigit(c))
                 {
                     handleNumber();
                 }
-                else if(Character.isLetter(c) || c == '_')
+                else if(isAlpha(c))
                 {
                     handleIdentifier();
                 }
                 else
                 {
-                    Lox.error(line, col, "Unknown symbol");
+                    error("Unknown symbol");
                 }
         }
     }
@@ -213,7 +390,7 @@ class Tokenizer
         {
             if(atEnd())
             {
-                Lox.error(line, col, "unterminated  comment"); 
+                error("unterminated  comment"); 
                 return;              
             }
             if(peek() == '/')
@@ -258,15 +435,23 @@ class Tokenizer
 
     private void handleIdentifier()
     {
-        while(Character.isLetterOrDigit(peek()) || peek() == '_')
+        while(isAlphaNumeric(peek()))
         {
             consume();
         }
-        String lexeme = source.substring(begin, curr);
-        TokenType type = keywords.get(lexeme); 
+        TokenType type = keyword();
         if(type == null)
         {
-            addToken(TokenType.ID, lexeme);
+            Symbol symbol = symbol();
+            addToken(TokenType.ID, symbol);
+        }
+        else if(type == TokenType.SELF)
+        {
+            addToken(type, Symbol.SELF);
+        }
+        else if(type == TokenType.SUPER)
+        {
+            addToken(type, Symbol.SUPER);
         }
         else
         {
@@ -274,38 +459,205 @@ class Tokenizer
         }
     }
 
+    /* Recognizes keywords by first char and length straight from the source,
+    without cutting the lexeme out first. */
+    private TokenType keyword()
+    {
+        switch(source.charAt(begin))
+        {
+            case 'a':
+                return keyword("and", TokenType.AND);
+            case 'b':
+                return keyword("break", TokenType.BREAK);
+            case 'c':
+                switch(curr - begin)
+                {
+                    case 4:
+                        return keyword("case", TokenType.CASE);
+                    case 5:
+                        return keyword("class", TokenType.CLASS);
+                    case 8:
+                        return keyword("continue", TokenType.CONTINUE);
+                }
+                return null;
+            case 'd':
+                switch(curr - begin)
+                {
+                    case 2:
+                        return keyword("do", TokenType.DO);
+                    case 6:
+                        return keyword("define", TokenType.DEFINE);
+                    case 7:
+                        return keyword("default", TokenType.DEFAULT);
+                }
+                return null;
+            case 'e':
+                return keyword("else", TokenType.ELSE);
+            case 'f':
+                switch(curr - begin)
+                {
+                    case 3:
+                        return keyword("for", TokenType.FOR);
+                    case 5:
+                        return keyword("false", TokenType.FALSE);
+                }
+                return null;
+            case 'i':
+                return keyword("if", TokenType.IF);
+            case 'l':
+                return keyword("let", TokenType.LET);
+            case 'n':
+                if(curr - begin == 3 && source.charAt(begin+1) == 'o')
+                {
+                    return keyword("not", TokenType.NOT);
+                }
+                return keyword("nil", TokenType.NIL);
+            case 'o':
+                return keyword("or", TokenType.OR);
+            case 'p':
+                return keyword("print", TokenType.PRINT);
+            case 'r':
+                return keyword("return", TokenType.RETURN);
+            case 's':
+                switch(curr - begin)
+                {
+                    case 4:
+                        return keyword("self", TokenType.SELF);
+                    case 5:
+                        return keyword("super", TokenType.SUPER);
+                    case 6:
+                        if(source.charAt(begin+1) == 'w')
+                        {
+                            return keyword("switch", TokenType.SWITCH);
+                        }
+                        return keyword("struct", TokenType.STRUCT);
+                }
+                return null;
+            case 't':
+                return keyword("true", TokenType.TRUE);
+            case 'w':
+                return keyword("while", TokenType.WHILE);
+        }
+        return null;
+    }
+
+    private TokenType keyword(String keyword, TokenType type)
+    {
+        if(curr - begin != keyword.length())
+        {
+            return null;
+        }
+        for(int i=1;i<keyword.length();i++)
+        {
+            if(source.charAt(begin+i) != keyword.charAt(i))
+            {
+                return null;
+            }
+        }
+        return type;
+    }
+
+    private Symbol symbol()
+    {
+        int hash = 0;
+        for(int i=begin;i<curr;i++)
+        {
+            hash = 31 * hash + source.charAt(i);
+        }
+        int index = (hash ^ (hash >>> 16)) & (symbols.length - 1);
+        Symbol symbol = symbols[index];
+        if(symbol == null || !sameName(symbol.name))
+        {
+            symbol = Symbol.intern(source.subSequence(begin, curr).toString());
+            symbols[index] = symbol;
+        }
+        return symbol;
+    }
+
+    private boolean sameName(String name)
+    {
+        if(name.length() != curr - begin)
+        {
+            return false;
+        }
+        for(int i=0;i<name.length();i++)
+        {
+            if(source.charAt(begin+i) != name.charAt(i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private void handleStrings()
     {
         while(peek() != '"')
         {
             if(atEnd() || peek() == '\n')
             {
-                Lox.error(line, col, "Unterminated String ");
+                error("Unterminated String ");
                 break;
             }
             consume();
         }
         consume();
-        String lexeme = source.substring(begin+1, curr-1);
-        addToken(TokenType.STRING, lexeme);
+        addToken(TokenType.STRING);
     }
 
     private void handleNumber()
     {
-        while(Character.isDigit(peek()))
+        while(isDigit(peek()))
         {
             consume();
         }
-        if(peek() == '.' && Character.isDigit(peekNext()))
+        if(peek() == '.' && isDigit(peekNext()))
         {
             consume();
         }
-        while(Character.isDigit(peek()))
+        while(isDigit(peek()))
         {
             consume();
         }
-        double val = Double.parseDouble(source.substring(begin, curr));
-        addToken(TokenType.NUMBER, val);
+        addToken(TokenType.NUMBER, numberValue());
+    }
+
+    /* Most literals are short integers or decimals, their digits are
+    accumulated straight from the source. A mantissa of at most 15 digits
+    and a power of ten up to 1e15 are both exact doubles, so a single
+    division rounds exactly as Double.parseDouble would, anything longer
+    (or made of non-ASCII digits) goes through parseDouble. */
+    private Double numberValue()
+    {
+        long mantissa = 0;
+        int digits = 0, fraction = -1;
+        for(int i=begin;i<curr;i++)
+        {
+            char c = source.charAt(i);
+            if(c == '.')
+            {
+                fraction = 0;
+                continue;
+            }
+            if(c < '0' || c > '9' || digits == 15 || fraction == 15)
+            {
+                return Double.parseDouble(source.subSequence(begin, curr).toString());
+            }
+            mantissa = mantissa * 10 + (c - '0');
+            if(mantissa != 0)
+            {
+                digits++;
+            }
+            if(fraction != -1)
+            {
+                fraction++;
+            }
+        }
+        if(fraction > 0)
+        {
+            return mantissa / powersOfTen[fraction];
+        }
+        return (double) mantissa;
     }
 
     private void addToken(TokenType type) 
@@ -313,10 +665,49 @@ class Tokenizer
         addToken(type, null);                                
     } 
 
-    private void addToken(TokenType type, Object literal) 
+    private void addToken(TokenType type, Object value) 
     {
-        String lexeme = source.substring(begin, curr);      
-        tokens.add(new Token(type, lexeme, literal, line, col));    
+        tokens.add(type, begin, curr-begin, line, col, value);
+        scanned++;
+    }
+
+    private void error(String message)
+    {
+        if(errors == null)
+        {
+            context.error(line, col, message);
+        }
+        else
+        {
+            errors.add(new LexError(line, col, message));
+        }
+    }
+
+    private static boolean isDigit(char c)
+    {
+        if(c < 128)
+        {
+            return charClass[c] == DIGIT;
+        }
+        return Character.isDigit(c);
+    }
+
+    private static boolean isAlpha(char c)
+    {
+        if(c < 128)
+        {
+            return charClass[c] == ALPHA;
+        }
+        return Character.isLetter(c);
+    }
+
+    private static boolean isAlphaNumeric(char c)
+    {
+        if(c < 128)
+        {
+            return charClass[c] != OTHER;
+        }
+        return Character.isLetterOrDigit(c);
     }
 
     private char peekNext()